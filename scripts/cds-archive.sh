@@ -0,0 +1,23 @@
+#!/bin/sh
+# Builds build/doilies.jar and a class data sharing archive for it, build/doilies.jsa.
+#
+# The archive holds the classes loaded while the editor starts, already parsed and verified, so later runs map
+# them straight into memory instead of loading them one by one. It is made by running the start up probe once
+# with -XX:ArchiveClassesAtExit, which needs a display as the probe opens the real window.
+#
+# Run the editor with the archive using:
+#   java -XX:SharedArchiveFile=build/doilies.jsa -jar build/doilies.jar
+#
+# The archive only matches the jar and JDK it was made with, so run this again after either changes. A JVM given a
+# stale archive prints a warning and starts without it. Use scripts/startup-timing.sh to compare start up times.
+set -e
+cd "$(dirname "$0")/.."
+
+rm -rf build/classes
+mkdir -p build/classes
+javac -d build/classes src/*.java
+jar --create --file build/doilies.jar --main-class Main -C build/classes .
+
+rm -f build/doilies.jsa
+java -XX:ArchiveClassesAtExit=build/doilies.jsa -jar build/doilies.jar startup-probe
+echo "Wrote build/doilies.jsa"
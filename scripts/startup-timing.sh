@@ -0,0 +1,30 @@
+#!/bin/sh
+# Reports how long the editor takes to display its first frame, with and without the class data sharing archive.
+# Usage: scripts/startup-timing.sh [runs]
+#
+# Each run starts a new JVM with the start up probe, which opens the editor, waits for the first frame of the
+# canvas and prints the times before exiting. Run scripts/cds-archive.sh first to build the jar and archive.
+# Compare the results before and after a change to catch start up regressions; the first run of each set is
+# usually slower as the files are not yet in the disk cache.
+set -e
+cd "$(dirname "$0")/.."
+
+runs=${1:-5}
+if [ ! -f build/doilies.jar ] || [ ! -f build/doilies.jsa ]; then
+    echo "Run scripts/cds-archive.sh first" >&2
+    exit 1
+fi
+
+echo "With the JDK's default archive only:"
+i=0
+while [ "$i" -lt "$runs" ]; do
+    java -jar build/doilies.jar startup-probe
+    i=$((i + 1))
+done
+
+echo "With archive:"
+i=0
+while [ "$i" -lt "$runs" ]; do
+    java -XX:SharedArchiveFile=build/doilies.jsa -jar build/doilies.jar startup-probe
+    i=$((i + 1))
+done
@@ -0,0 +1,328 @@
+import javax.imageio.IIOImage;
+import javax.imageio.ImageIO;
+import javax.imageio.ImageTypeSpecifier;
+import javax.imageio.ImageWriteParam;
+import javax.imageio.ImageWriter;
+import javax.imageio.metadata.IIOMetadata;
+import javax.imageio.metadata.IIOMetadataNode;
+import javax.imageio.stream.ImageOutputStream;
+import java.awt.*;
+import java.awt.geom.AffineTransform;
+import java.awt.geom.Line2D;
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Exports the drawing process as a time-lapse, either as an animated GIF or as a directory of numbered PNGs. The
+ * sketches are replayed one segment (a start point or line) at a time onto a single layer, so each frame builds on
+ * the last instead of redrawing the whole history. Frames are encoded on worker threads while the next frames are
+ * drawn.
+ */
+class AnimationExporter {
+
+    // The sketches to replay, oldest first
+    private final List<Sketch> sketches;
+
+    // The number of sectors the sketches are repeated in
+    private final int numberSectors;
+
+    // The width and height of each frame
+    private int size = DoilyRenderer.CANVAS_SIZE;
+
+    // The number of frames to split the drawing into and how long each is shown for
+    private int frames = 100;
+    private int frameDelay = 50;
+
+    // The way the sketches are repeated
+    private Symmetry symmetry = Symmetry.ROTATION;
+
+    // Flag to turn the whole doily through one full rotation over the animation
+    private boolean rotate = false;
+
+    // The number of threads encoding frames
+    private int threads = Runtime.getRuntime().availableProcessors();
+
+    /**
+     * @param sketches the sketches to replay, oldest first
+     * @param numberSectors the number of sectors the sketches are repeated in
+     */
+    AnimationExporter(List<Sketch> sketches, int numberSectors) {
+        this.sketches = sketches;
+        this.numberSectors = numberSectors;
+    }
+
+    /**
+     * @param size the width and height of each frame
+     */
+    void setSize(int size) {
+        this.size = size;
+    }
+
+    /**
+     * @param frames the number of frames to split the drawing into
+     */
+    void setFrames(int frames) {
+        this.frames = frames;
+    }
+
+    /**
+     * @param frameDelay how long each frame of a GIF is shown for in milliseconds
+     */
+    void setFrameDelay(int frameDelay) {
+        this.frameDelay = frameDelay;
+    }
+
+    /**
+     * @param symmetry the way the sketches are repeated
+     */
+    void setSymmetry(Symmetry symmetry) {
+        this.symmetry = symmetry;
+    }
+
+    /**
+     * @param rotate whether to turn the doily through one full rotation over the animation
+     */
+    void setRotate(boolean rotate) {
+        this.rotate = rotate;
+    }
+
+    /**
+     * Exports an animated GIF if the target ends in .gif, otherwise writes numbered PNGs into the target directory.
+     * @param target the GIF file or the directory for the PNGs
+     * @throws IOException if a frame cannot be written
+     */
+    void export(File target) throws IOException, InterruptedException {
+        if (target.getName().toLowerCase().endsWith(".gif")) {
+            exportGif(target);
+        } else {
+            exportPngs(target);
+        }
+    }
+
+    /**
+     * Writes every frame as a PNG named frame00000.png, frame00001.png and so on. Each frame is encoded and written
+     * by a worker thread.
+     * @param directory the directory to write the PNGs to
+     * @throws IOException if a frame cannot be written
+     */
+    private void exportPngs(File directory) throws IOException, InterruptedException {
+        directory.mkdirs();
+        ExecutorService pool = Executors.newFixedThreadPool(threads);
+        ArrayDeque<Future<BufferedImage>> pending = new ArrayDeque<>();
+
+        try {
+            int[] index = {0};
+            replay(frame -> {
+                File file = new File(directory, String.format("frame%05d.png", index[0]++));
+                queue(pending, pool.submit(() -> {
+                    ImageIO.write(frame, "png", file);
+                    return frame;
+                }));
+            });
+
+            // Wait for the remaining frames to be written
+            while (!pending.isEmpty()) {
+                await(pending.poll());
+            }
+        } finally {
+            pool.shutdownNow();
+        }
+    }
+
+    /**
+     * Writes every frame to a looping animated GIF. Worker threads convert the frames to the indexed colour GIF needs,
+     * then the frames are written to the file in order.
+     * @param file the GIF file to write
+     * @throws IOException if the file cannot be written
+     */
+    private void exportGif(File file) throws IOException, InterruptedException {
+        ImageWriter writer = ImageIO.getImageWritersByFormatName("gif").next();
+        ExecutorService pool = Executors.newFixedThreadPool(threads);
+        ArrayDeque<Future<BufferedImage>> pending = new ArrayDeque<>();
+
+        // Remove any existing file first as the output stream does not truncate it
+        file.delete();
+        try (ImageOutputStream out = ImageIO.createImageOutputStream(file)) {
+            writer.setOutput(out);
+            writer.prepareWriteSequence(null);
+
+            replay(frame -> {
+                Future<BufferedImage> indexed = pool.submit(() -> toIndexed(frame));
+
+                // Once enough frames are being converted, write the oldest before drawing any more
+                if (pending.size() >= threads * 2) {
+                    writeGifFrame(writer, await(pending.poll()));
+                }
+                pending.add(indexed);
+            });
+
+            while (!pending.isEmpty()) {
+                writeGifFrame(writer, await(pending.poll()));
+            }
+            writer.endWriteSequence();
+        } finally {
+            pool.shutdownNow();
+            writer.dispose();
+        }
+    }
+
+    /**
+     * Replays the sketches segment by segment onto one layer, passing a finished frame to the consumer each time enough
+     * segments have been drawn.
+     * @param consumer receives each frame, flattened onto the black background
+     * @throws IOException if the consumer cannot handle a frame
+     */
+    private void replay(FrameConsumer consumer) throws IOException, InterruptedException {
+        // Count the segments so they can be shared evenly between the frames
+        int segments = 0;
+        for (Sketch sketch : sketches) {
+            segments += 1 + sketch.getLines().size();
+        }
+        int segmentsPerFrame = Math.max(1, (segments + frames - 1) / frames);
+
+        /* Short histories give fewer frames than were asked for, so the rotation is shared between the frames that
+           are actually written in order to still finish a full turn */
+        int totalFrames = Math.max(1, (segments + segmentsPerFrame - 1) / segmentsPerFrame);
+
+        BufferedImage layer = new BufferedImage(size, size, BufferedImage.TYPE_INT_ARGB);
+        Graphics2D g2 = layer.createGraphics();
+        g2.setRenderingHint(RenderingHints.KEY_ANTIALIASING, RenderingHints.VALUE_ANTIALIAS_ON);
+        g2.scale(size, size);
+
+        int drawn = 0;
+        int frame = 0;
+        for (Sketch sketch : sketches) {
+            List<AffineTransform> transforms = symmetry.getTransforms(numberSectors, sketch.getReflect());
+            DoilyRenderer.drawShape(g2, sketch.getStartPoint(), transforms, sketch.getColour(),
+                    sketch.getWidth(), sketch.getErase());
+            if (++drawn % segmentsPerFrame == 0) {
+                consumer.accept(snapshot(layer, frame++, totalFrames));
+            }
+
+            for (Line2D line : sketch.getLines()) {
+                DoilyRenderer.drawShape(g2, line, transforms, sketch.getColour(),
+                        sketch.getWidth(), sketch.getErase());
+                if (++drawn % segmentsPerFrame == 0) {
+                    consumer.accept(snapshot(layer, frame++, totalFrames));
+                }
+            }
+        }
+
+        // Always finish on the completed drawing
+        if (drawn % segmentsPerFrame != 0 || drawn == 0) {
+            consumer.accept(snapshot(layer, frame, totalFrames));
+        }
+        g2.dispose();
+    }
+
+    /**
+     * Copies the layer onto the black background, turning it when the rotating view is enabled.
+     * @param layer the layer being replayed onto
+     * @param frame the number of the frame, used to work out the angle
+     * @param totalFrames the number of frames in the animation
+     * @return a new opaque image holding the frame
+     */
+    private BufferedImage snapshot(BufferedImage layer, int frame, int totalFrames) {
+        BufferedImage image = new BufferedImage(size, size, BufferedImage.TYPE_INT_RGB);
+        Graphics2D g = image.createGraphics();
+        g.setPaint(Color.black);
+        g.fillRect(0, 0, size, size);
+        if (rotate) {
+            g.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_BILINEAR);
+            g.rotate(2 * Math.PI * frame / totalFrames, size / 2.0, size / 2.0);
+        }
+        g.drawImage(layer, 0, 0, null);
+        g.dispose();
+        return image;
+    }
+
+    /**
+     * @param frame an opaque frame
+     * @return the frame converted to the default 256 colour palette
+     */
+    private static BufferedImage toIndexed(BufferedImage frame) {
+        BufferedImage indexed = new BufferedImage(frame.getWidth(), frame.getHeight(),
+                BufferedImage.TYPE_BYTE_INDEXED);
+        Graphics2D g = indexed.createGraphics();
+        g.drawImage(frame, 0, 0, null);
+        g.dispose();
+        return indexed;
+    }
+
+    /**
+     * Appends a frame to the GIF with the frame delay and, on the first frame, the extension that makes it loop.
+     * @param writer the GIF writer in the middle of a sequence
+     * @param frame the indexed frame to write
+     */
+    private void writeGifFrame(ImageWriter writer, BufferedImage frame) throws IOException {
+        ImageWriteParam param = writer.getDefaultWriteParam();
+        IIOMetadata metadata = writer.getDefaultImageMetadata(new ImageTypeSpecifier(frame), param);
+        String format = metadata.getNativeMetadataFormatName();
+        IIOMetadataNode root = (IIOMetadataNode) metadata.getAsTree(format);
+
+        // Delay is measured in hundredths of a second
+        IIOMetadataNode control = new IIOMetadataNode("GraphicControlExtension");
+        control.setAttribute("disposalMethod", "none");
+        control.setAttribute("userInputFlag", "FALSE");
+        control.setAttribute("transparentColorFlag", "FALSE");
+        control.setAttribute("delayTime", String.valueOf(frameDelay / 10));
+        control.setAttribute("transparentColorIndex", "0");
+        root.appendChild(control);
+
+        // The Netscape application extension with a loop count of zero repeats forever
+        IIOMetadataNode extensions = new IIOMetadataNode("ApplicationExtensions");
+        IIOMetadataNode loop = new IIOMetadataNode("ApplicationExtension");
+        loop.setAttribute("applicationID", "NETSCAPE");
+        loop.setAttribute("authenticationCode", "2.0");
+        loop.setUserObject(new byte[]{1, 0, 0});
+        extensions.appendChild(loop);
+        root.appendChild(extensions);
+
+        metadata.setFromTree(format, root);
+        writer.writeToSequence(new IIOImage(frame, null, metadata), param);
+    }
+
+    /**
+     * Adds a frame being encoded to the queue, first waiting for the oldest frame if enough are already in progress.
+     * This stops drawing from getting far ahead of encoding and filling memory with frames.
+     * @param pending the frames being encoded, oldest first
+     * @param frame the frame that has just been submitted
+     */
+    private void queue(ArrayDeque<Future<BufferedImage>> pending, Future<BufferedImage> frame)
+            throws IOException, InterruptedException {
+        if (pending.size() >= threads * 2) {
+            await(pending.poll());
+        }
+        pending.add(frame);
+    }
+
+    /**
+     * @param frame a frame being encoded on a worker thread
+     * @return the result of the worker
+     * @throws IOException if the worker failed
+     */
+    private static BufferedImage await(Future<BufferedImage> frame) throws IOException, InterruptedException {
+        try {
+            return frame.get();
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof IOException) {
+                throw (IOException) e.getCause();
+            }
+            throw new IOException(e.getCause());
+        }
+    }
+
+    /**
+     * Receives each frame as it is replayed.
+     */
+    private interface FrameConsumer {
+        void accept(BufferedImage frame) throws IOException, InterruptedException;
+    }
+}
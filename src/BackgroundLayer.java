@@ -1,95 +1,128 @@
-import javax.swing.*;
 import java.awt.*;
-import java.awt.geom.AffineTransform;
 import java.awt.geom.Line2D;
 import java.awt.image.BufferedImage;
+import java.util.LinkedHashMap;
+import java.util.Map;
 
 /**
- * Represents the background layer which holds the black background and sector lines. This is redrawn when the user
- * toggles sector lines or changes the number of sector lines.
+ * Represents the background layer which holds the black background and sector lines. The renderings for the last few
+ * combinations of the symmetry, the number of sectors and whether sector lines are shown are kept, so switching back to
+ * a recent setting does not draw it again. The renderings are composited under the drawing by the draw layer.
  */
-public class BackgroundLayer extends JPanel {
+class BackgroundLayer {
 
-    // Store a reference to the editor object to allow the background layer to get the number of sectors from it
-    private Editor editor;
-
-    // The graphics object used to draw the background and sector lines
-    private Graphics2D g2;
-
-    // The image canvas on which to draw the background
-    private BufferedImage image;
+    // Store a reference to the settings to allow the background layer to get the number of sectors from them
+    private CanvasSettings settings;
 
     // Flag to control whether the lines separating the sectors are drawn
     private Boolean showSectorLines = true;
 
+    // The number of renderings kept, enough to toggle the sector lines or step the sectors back and forth
+    private static final int MAX_RENDERINGS = 4;
+
+    /* Renderings keyed by the symmetry, the number of sectors and the sector lines flag, all of the same size. They are
+       in access order so the least recently used is dropped once there are too many, as each is a full canvas. */
+    private Map<String, BufferedImage> renderings = new LinkedHashMap<String, BufferedImage>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, BufferedImage> eldest) {
+            return size() > MAX_RENDERINGS;
+        }
+    };
+    private int width, height;
+
     /**
      * Constructor for the background layer.
-     * @param editor to store a reference to so it's methods can be called.
+     * @param settings the number of sectors and symmetry to draw the guides for, usually the editor
+     */
+    BackgroundLayer(CanvasSettings settings) {
+        this.settings = settings;
+    }
+
+    /**
+     * Returns the background for the current settings, drawing it only if this combination of settings has not been
+     * drawn at this size before.
+     * @param config the screen the background is displayed on, used to create an image in the screen's format
+     * @param width the width of the background in pixels
+     * @param height the height of the background in pixels
+     * @param scale the number of pixels per screen unit, used to keep the sector lines one unit wide
+     * @return the background image
      */
-    BackgroundLayer(Editor editor) {
-        this.editor = editor;
+    BufferedImage getImage(GraphicsConfiguration config, int width, int height, double scale) {
+        // Renderings at the old size are no longer any use once the size changes
+        if (width != this.width || height != this.height) {
+            renderings.clear();
+            this.width = width;
+            this.height = height;
+        }
+
+        String key = settings.getSymmetry() + "/" + settings.getNumberSectors() + "/" + showSectorLines;
+        BufferedImage image = renderings.get(key);
+        if (image == null) {
+            // Use the screen's own pixel format if possible so the image does not need converting when displayed
+            image = config != null ? config.createCompatibleImage(width, height)
+                    : new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+            drawBackground(image, scale);
+            renderings.put(key, image);
+        }
+        return image;
     }
 
     /**
      * Draws the background and sector lines onto the image.
+     * @param image the image to draw on
+     * @param scale the number of pixels per screen unit
      */
-    void drawBackground() {
+    private void drawBackground(BufferedImage image, double scale) {
+        // The graphics object used to draw the background and sector lines
+        Graphics2D g2 = image.createGraphics();
+
+        // Use antialiasing on the sector lines to smooth them (especially important for diagonal sector lines)
+        g2.setRenderingHint(RenderingHints.KEY_ANTIALIASING, RenderingHints.VALUE_ANTIALIAS_ON);
+
         // Fills the image with a black rectangle
         g2.setPaint(Color.black);
-        g2.fillRect(0, 0, getWidth(), getHeight());
+        g2.fillRect(0, 0, image.getWidth(), image.getHeight());
 
         if (showSectorLines) {
             g2.setPaint(Color.white);
 
-            // Create a line from the center to the top of the window
-            Line2D sectorLine = new Line2D.Double(400, 400, 400, 0);
+            // The guides are in canvas coordinates, so scale them to the largest square that fits the layer
+            double side = Math.min(image.getWidth(), image.getHeight());
+            g2.translate((image.getWidth() - side) / 2, (image.getHeight() - side) / 2);
+            g2.scale(side, side);
 
-            // Loop from 0 to 360, using the number of sectors to calculate the step. Drawing copies of the line.
-            for (double i = 0; i <= 360; i = i + ((double) 360 / editor.getNumberSectors())) {
-                // Define a rotation of the calculated number of degrees about the origin of the line (center)
-                AffineTransform rotate =
-                        AffineTransform.getRotateInstance(
-                                Math.toRadians(i), sectorLine.getX1(), sectorLine.getY1());
+            // Keep the lines one screen unit wide on HiDPI screens
+            g2.setStroke(new BasicStroke((float) (scale / side)));
 
-                // Draw the rotated line
-                g2.draw(rotate.createTransformedShape(sectorLine));
+            // Draw the edges of the sectors or cells for the current symmetry
+            for (Line2D guide : settings.getSymmetry().getGuides(settings.getNumberSectors())) {
+                g2.draw(guide);
             }
         }
 
-        // Once the background and sector lines have been drawn call repaint on the panel to refresh it
-        repaint();
+        g2.dispose();
     }
 
     /**
-     * Invert the showSectorLines boolean flag.
+     * @param showSectorLines whether to draw the lines separating the sectors
      */
-    void toggleShowSectorLines() {
-        showSectorLines = !showSectorLines;
+    void setShowSectorLines(boolean showSectorLines) {
+        this.showSectorLines = showSectorLines;
     }
 
     /**
-     * Create a new image to draw onto or refreshes the displayed image.
-     * @param g graphics object.
+     * @return true if the lines separating the sectors are drawn
      */
-    @Override
-    protected void paintComponent(Graphics g) {
-        super.paintComponent(g);
-
-        // If an image hasn't yet been created
-        if (image == null) {
-            // Create a new image to fill the panel
-            image = new BufferedImage(getWidth(), getHeight(), BufferedImage.TYPE_INT_RGB);
-
-            // Store a reference to it's graphics object
-            g2 = (Graphics2D) image.getGraphics();
-
-            // Use antialiasing on the sector lines to smooth them (especially important for diagonal sector lines)
-            g2.setRenderingHint(RenderingHints.KEY_ANTIALIASING, RenderingHints.VALUE_ANTIALIAS_ON);
-
-            drawBackground();
-        }
+    boolean isShowingSectorLines() {
+        return showSectorLines;
+    }
 
-        // If an image has already been created simply redraw the image
-        g.drawImage(image, 0, 0, null);
+    /**
+     * Forgets every rendering, used when the document is no longer shown. They are drawn again when next needed.
+     */
+    void release() {
+        renderings.clear();
+        width = 0;
+        height = 0;
     }
 }
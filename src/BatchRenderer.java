@@ -0,0 +1,194 @@
+import javax.imageio.ImageIO;
+import java.awt.*;
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Renders a directory of saved sessions to PNG files without a display. Sessions are rendered on a pool of worker
+ * threads, each of which reuses its own images so memory stays the same however many sessions there are.
+ */
+class BatchRenderer {
+
+    // The largest PNG that may be rendered, each worker keeps two images this size
+    private static final int MAX_SIZE = 4096;
+
+    // The size of the square PNGs in pixels
+    private int size = DoilyRenderer.CANVAS_SIZE;
+
+    // The number of sectors each doily is repeated in
+    private int numberSectors = 12;
+
+    // The way each doily is repeated
+    private Symmetry symmetry = Symmetry.ROTATION;
+
+    // The number of worker threads
+    private int threads = Runtime.getRuntime().availableProcessors();
+
+    // Holds the images each worker draws into so they are only allocated once per thread
+    private ThreadLocal<BufferedImage[]> buffers;
+
+    /**
+     * Parses the command line and renders every session in the input directory.
+     * Usage: render &lt;sessionDir&gt; &lt;outputDir&gt; [--size N] [--sectors N] [--symmetry MODE]
+     * [--threads N]
+     * @param args command line arguments, without the leading "render"
+     */
+    static void main(String[] args) throws Exception {
+        if (args.length < 2) {
+            exitWithUsage("Missing session or output directory");
+        }
+
+        BatchRenderer renderer = new BatchRenderer();
+        try {
+            parseOptions(renderer, args);
+        } catch (IllegalArgumentException e) {
+            // Includes numbers which cannot be parsed and unknown symmetry names
+            exitWithUsage(e.getMessage());
+        }
+
+        renderer.renderAll(new File(args[0]), new File(args[1]));
+    }
+
+    /**
+     * Sets the renderer's options from the command line after the two directories.
+     * @param renderer the renderer to configure
+     * @param args command line arguments, without the leading "render"
+     * @throws IllegalArgumentException if an option is unknown, has no value or has a value which cannot be parsed
+     */
+    private static void parseOptions(BatchRenderer renderer, String[] args) {
+        for (int i = 2; i < args.length; i += 2) {
+            if (i + 1 == args.length) {
+                throw new IllegalArgumentException("Missing value for " + args[i]);
+            }
+            String value = args[i + 1];
+            try {
+                switch (args[i]) {
+                    case "--size":
+                        renderer.size = parseNumber(args[i], value, MAX_SIZE);
+                        break;
+                    case "--sectors":
+                        renderer.numberSectors = parseNumber(args[i], value, Symmetry.MAX_SECTORS);
+                        break;
+                    case "--symmetry":
+                        renderer.symmetry = Symmetry.fromName(value);
+                        break;
+                    case "--threads":
+                        renderer.threads = parseNumber(args[i], value, Integer.MAX_VALUE);
+                        break;
+                    default:
+                        throw new IllegalArgumentException("Unknown option " + args[i]);
+                }
+            } catch (NumberFormatException e) {
+                throw new IllegalArgumentException(args[i] + " needs a whole number, not " + value);
+            }
+        }
+    }
+
+    /**
+     * @param option the option the value was given for
+     * @param value the value from the command line
+     * @param max the largest value allowed
+     * @return the value as a number from 1 to the maximum
+     * @throws NumberFormatException if the value is not a whole number
+     * @throws IllegalArgumentException if the value is outside the range allowed
+     */
+    private static int parseNumber(String option, String value, int max) {
+        int number = Integer.parseInt(value);
+        if (number < 1 || number > max) {
+            String range = max == Integer.MAX_VALUE ? " must be at least 1" : " must be from 1 to " + max;
+            throw new IllegalArgumentException(option + range + ", not " + value);
+        }
+        return number;
+    }
+
+    /**
+     * Prints what was wrong with the command line and how to use it, then exits.
+     * @param problem the reason the command line was rejected
+     */
+    private static void exitWithUsage(String problem) {
+        System.err.println(problem);
+        System.err.println("Usage: render <sessionDir> <outputDir> [--size N] [--sectors N] [--symmetry MODE]"
+                + " [--threads N]");
+        System.exit(2);
+    }
+
+    /**
+     * Renders every session file in a directory, printing the number of failures and the throughput once finished.
+     * @param sessionDir the directory holding the saved sessions
+     * @param outputDir the directory to write the PNGs to
+     */
+    void renderAll(File sessionDir, File outputDir) throws InterruptedException {
+        File[] sessions = sessionDir.listFiles((dir, name) -> name.endsWith(SessionFile.EXTENSION));
+        if (sessions == null) {
+            throw new IllegalArgumentException(sessionDir + " is not a directory");
+        }
+        outputDir.mkdirs();
+
+        buffers = ThreadLocal.withInitial(() -> new BufferedImage[]{
+                new BufferedImage(size, size, BufferedImage.TYPE_INT_ARGB),
+                new BufferedImage(size, size, BufferedImage.TYPE_INT_RGB)});
+
+        /* Only queue a couple of sessions per worker and let the submitting thread render when the queue is full.
+           This stops a large directory from filling memory with waiting tasks. */
+        ThreadPoolExecutor pool = new ThreadPoolExecutor(threads, threads, 0, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(threads * 2), new ThreadPoolExecutor.CallerRunsPolicy());
+
+        AtomicInteger failures = new AtomicInteger();
+        long start = System.nanoTime();
+
+        for (File session : sessions) {
+            pool.execute(() -> {
+                try {
+                    renderSession(session, outputDir);
+                } catch (IOException | RuntimeException e) {
+                    failures.incrementAndGet();
+                    System.err.println("Failed to render " + session.getName() + ": " + e.getMessage());
+                }
+            });
+        }
+
+        pool.shutdown();
+        pool.awaitTermination(Long.MAX_VALUE, TimeUnit.NANOSECONDS);
+
+        double seconds = (System.nanoTime() - start) / 1e9;
+        int rendered = sessions.length - failures.get();
+        System.out.printf("Rendered %d images (%d failed) in %.2fs: %.1f images/sec%n",
+                rendered, failures.get(), seconds, rendered / seconds);
+    }
+
+    /**
+     * Renders a single session using the current thread's images and writes it as a PNG.
+     * @param session the session file to render
+     * @param outputDir the directory to write the PNG to
+     * @throws IOException if the session cannot be read or the PNG cannot be written
+     */
+    private void renderSession(File session, File outputDir) throws IOException {
+        List<Sketch> sketches = SessionFile.read(session);
+        BufferedImage[] images = buffers.get();
+
+        // Draw the sketches onto the transparent layer, then place it over the black background
+        DoilyRenderer.render(sketches, symmetry, numberSectors, null, images[0]);
+        flatten(images[0], images[1]);
+
+        String name = session.getName();
+        name = name.substring(0, name.length() - SessionFile.EXTENSION.length()) + ".png";
+        ImageIO.write(images[1], "png", new File(outputDir, name));
+    }
+
+    /**
+     * Draws a transparent layer over a black background as it appears in the editor.
+     * @param layer the drawn layer
+     * @param target the opaque image to draw onto
+     */
+    static void flatten(BufferedImage layer, BufferedImage target) {
+        Graphics2D g = target.createGraphics();
+        g.setPaint(Color.black);
+        g.fillRect(0, 0, target.getWidth(), target.getHeight());
+        g.drawImage(layer, 0, 0, null);
+        g.dispose();
+    }
+}
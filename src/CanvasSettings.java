@@ -0,0 +1,16 @@
+/**
+ * The settings that decide how a drawing is repeated across the canvas. The editor provides them from its menus, and
+ * the draw and background layers read them whenever they draw, so the layers can also be used without an editor.
+ */
+interface CanvasSettings {
+
+    /**
+     * @return the number of sectors the drawing should be repeated in
+     */
+    int getNumberSectors();
+
+    /**
+     * @return the way the drawing is repeated
+     */
+    Symmetry getSymmetry();
+}
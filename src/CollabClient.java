@@ -0,0 +1,515 @@
+import javax.swing.*;
+import java.awt.*;
+import java.awt.geom.Ellipse2D;
+import java.awt.geom.Line2D;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Consumer;
+
+/**
+ * Shares the drawing on a draw layer with the other users connected to a collaboration server. The user's sketches are
+ * drawn straight away and sent as they are drawn, with the points dragged through batched once per frame. Sketches
+ * from other users are drawn through the same symmetry as the user's own as their points arrive.
+ *
+ * The server gives every message a sequence number, and the drawing is the finished sketches in the order their
+ * BEGIN messages were numbered. Sketches drawn at the same time may be layered differently on each screen while they
+ * are drawn, so once nobody is drawing any changed drawing is redrawn in sequence order, which makes every screen
+ * match. Users can only undo and redo their own sketches, which is also resolved by redrawing.
+ */
+class CollabClient implements DrawLayer.StrokeListener {
+
+    // How often the points dragged through are sent, once per frame at about 60 frames per second
+    private static final int BATCH_DELAY = 16;
+
+    // How long to wait for the server to answer when connecting, in milliseconds
+    private static final int CONNECT_TIMEOUT = 5000;
+
+    // Put in the outgoing queue to stop the sender thread
+    private static final byte[] CLOSE = new byte[0];
+
+    private final Socket socket;
+    private final DataInputStream in;
+    private final DrawLayer drawLayer;
+
+    // Called on the event dispatch thread if the connection is lost
+    private final Consumer<IOException> onDisconnect;
+
+    // The id the server gave this client, used to tell the user's own sketches apart
+    private final int clientId;
+
+    // Messages waiting to be written by the sender thread
+    private final BlockingQueue<byte[]> outgoing = new LinkedBlockingQueue<>();
+
+    // Messages read from the server waiting to be applied on the event dispatch thread
+    private final ConcurrentLinkedQueue<CollabProtocol.Message> incoming = new ConcurrentLinkedQueue<>();
+    private final AtomicBoolean applyScheduled = new AtomicBoolean();
+
+    private volatile boolean closed;
+
+    // Set once the client has been started and is listening to the draw layer
+    private boolean started;
+
+    // EVERYTHING BELOW IS ONLY USED ON THE EVENT DISPATCH THREAD
+
+    // Every sketch in the session, by stroke key and in sequence order
+    private final Map<Long, SharedSketch> sketches = new HashMap<>();
+    private final TreeMap<Integer, SharedSketch> order = new TreeMap<>();
+
+    // The number of sketches started but not finished, from any user
+    private int drawing;
+
+    // The number of the user's own sketches that have been started but not yet finished by the server
+    private int unconfirmed;
+
+    // Set when sketches overlap in time or are undone, so the drawing is redrawn in order once nobody is drawing
+    private boolean redrawNeeded;
+
+    // The id of the user's sketch being drawn and the next id to use
+    private int currentStroke;
+    private int nextStroke;
+
+    // Points dragged through since the last batch was sent, as x, y pairs
+    private double[] points = new double[64];
+    private int pointCount;
+    private final Timer batchTimer = new Timer(BATCH_DELAY, e -> sendPoints());
+
+    // The user's own sketches that have been undone, most recent first
+    private final Deque<Integer> redoStack = new ArrayDeque<>();
+
+    /**
+     * @param socket the connected socket
+     * @param in the stream from the server, which has already been read up to the end of the HELLO message
+     * @param clientId the id the server gave this client
+     * @param drawLayer the draw layer to share
+     * @param onDisconnect called on the event dispatch thread if the connection is lost
+     */
+    private CollabClient(Socket socket, DataInputStream in, int clientId, DrawLayer drawLayer,
+                         Consumer<IOException> onDisconnect) {
+        this.socket = socket;
+        this.in = in;
+        this.clientId = clientId;
+        this.drawLayer = drawLayer;
+        this.onDisconnect = onDisconnect;
+    }
+
+    /**
+     * Connects to a server, without touching the draw layer, so this can be called on a worker thread while the user
+     * carries on drawing. The client does nothing until it is started.
+     * @param host the name or address of the server
+     * @param port the port of the server
+     * @param drawLayer the draw layer to share once started
+     * @param onDisconnect called on the event dispatch thread if the connection is lost
+     * @return the connected client
+     * @throws IOException if the server cannot be reached or does not answer
+     */
+    static CollabClient connect(String host, int port, DrawLayer drawLayer, Consumer<IOException> onDisconnect)
+            throws IOException {
+        Socket socket = new Socket();
+        try {
+            socket.connect(new InetSocketAddress(host, port), CONNECT_TIMEOUT);
+            socket.setTcpNoDelay(true);
+            socket.setSoTimeout(CONNECT_TIMEOUT);
+
+            DataOutputStream out = new DataOutputStream(socket.getOutputStream());
+            out.writeInt(CollabProtocol.MAGIC);
+            out.writeInt(CollabProtocol.VERSION);
+            out.flush();
+
+            DataInputStream in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+            CollabProtocol.Message hello = CollabProtocol.read(in);
+            if (hello.type != CollabProtocol.HELLO) {
+                throw new IOException("Not a collaboration server");
+            }
+            socket.setSoTimeout(0);
+            return new CollabClient(socket, in, hello.client, drawLayer, onDisconnect);
+        } catch (IOException e) {
+            socket.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Starts sharing the draw layer. The drawing on the draw layer is replaced by the drawing the server sends, which
+     * is everything drawn in the session so far. This must be called on the event dispatch thread.
+     * @param shareDrawing whether to send the sketches already on the draw layer, used when hosting so the session
+     *                     starts with the host's drawing
+     * @throws IllegalArgumentException if a sketch being shared has a brush too wide to send
+     */
+    void start(boolean shareDrawing) {
+        if (shareDrawing) {
+            // The sketches are already on screen so they are kept, they come back from the server as the user's own
+            for (Sketch sketch : drawLayer.getSketches()) {
+                share(sketch);
+            }
+        } else {
+            // Start from a clear drawing, the server sends every sketch in the session which is drawn as it arrives
+            drawLayer.loadSketches(new ArrayList<>());
+        }
+        started = true;
+        drawLayer.setStrokeListener(this);
+
+        Thread sender = new Thread(this::send, "Collaboration sender");
+        sender.setDaemon(true);
+        sender.start();
+
+        Thread reader = new Thread(this::receive, "Collaboration reader");
+        reader.setDaemon(true);
+        reader.start();
+    }
+
+    /**
+     * Disconnects from the server and stops listening to the draw layer. The drawing is kept, in sequence order. A
+     * client which was never started only drops the connection.
+     */
+    void close() {
+        closed = true;
+        batchTimer.stop();
+        if (started) {
+            drawLayer.setStrokeListener(null);
+            if (redrawNeeded) {
+                drawLayer.loadSketches(visibleSketches());
+            }
+        }
+        outgoing.add(CLOSE);
+        try {
+            socket.close();
+        } catch (IOException e) {
+            // The connection is being dropped anyway
+        }
+    }
+
+    /**
+     * @return true if the user has a finished sketch that can be undone
+     */
+    boolean canUndo() {
+        return lastOwnSketch() != null;
+    }
+
+    /**
+     * @return true if the user has undone a sketch that can be redone
+     */
+    boolean canRedo() {
+        return !redoStack.isEmpty();
+    }
+
+    /**
+     * Undoes the user's most recent sketch and tells the other users.
+     */
+    void undo() {
+        SharedSketch sketch = lastOwnSketch();
+        if (sketch != null) {
+            sketch.undone = true;
+            redoStack.push(sketch.stroke);
+            outgoing.add(CollabProtocol.command(CollabProtocol.UNDO, sketch.stroke));
+            redrawNeeded = true;
+            redrawIfSettled();
+        }
+    }
+
+    /**
+     * Redoes the user's most recently undone sketch and tells the other users.
+     */
+    void redo() {
+        if (redoStack.isEmpty()) {
+            return;
+        }
+        int stroke = redoStack.pop();
+        SharedSketch sketch = sketches.get(CollabProtocol.strokeKey(clientId, stroke));
+        if (sketch != null) {
+            sketch.undone = false;
+            outgoing.add(CollabProtocol.command(CollabProtocol.REDO, stroke));
+            redrawNeeded = true;
+            redrawIfSettled();
+        }
+    }
+
+    /**
+     * @return the user's most recent finished sketch that has not been undone, or null if there is none
+     */
+    private SharedSketch lastOwnSketch() {
+        for (SharedSketch sketch : order.descendingMap().values()) {
+            if (sketch.client == clientId && sketch.finished && !sketch.undone) {
+                return sketch;
+            }
+        }
+        return null;
+    }
+
+    @Override
+    public void strokeStarted(double x, double y, Color colour, int width, boolean reflect, boolean erase) {
+        currentStroke = nextStroke++;
+        unconfirmed++;
+        // A new sketch means the undone ones can no longer be redone
+        redoStack.clear();
+        outgoing.add(CollabProtocol.begin(currentStroke, colour, width, reflect, erase, x, y));
+        batchTimer.start();
+    }
+
+    @Override
+    public void lineDrawn(double x, double y) {
+        if (pointCount == CollabProtocol.MAX_POINTS) {
+            sendPoints();
+        }
+        if (pointCount * 2 == points.length) {
+            points = Arrays.copyOf(points, points.length * 2);
+        }
+        points[pointCount * 2] = x;
+        points[pointCount * 2 + 1] = y;
+        pointCount++;
+    }
+
+    @Override
+    public void strokeFinished() {
+        sendPoints();
+        batchTimer.stop();
+        outgoing.add(CollabProtocol.command(CollabProtocol.END, currentStroke));
+    }
+
+    /**
+     * Queues the points dragged through since the last batch as one message.
+     */
+    private void sendPoints() {
+        if (pointCount > 0) {
+            outgoing.add(CollabProtocol.lines(currentStroke, points, pointCount));
+            pointCount = 0;
+        }
+    }
+
+    /**
+     * Queues a finished sketch to send as if it had just been drawn, used to share a drawing when hosting.
+     * @param sketch the sketch to send
+     */
+    private void share(Sketch sketch) {
+        Ellipse2D start = sketch.getStartPoint();
+        strokeStarted(start.getCenterX(), start.getCenterY(), sketch.getColour(), sketch.getWidth(),
+                sketch.getReflect(), sketch.getErase());
+        for (Line2D line : sketch.getLines()) {
+            lineDrawn(line.getX2(), line.getY2());
+        }
+        strokeFinished();
+    }
+
+    /**
+     * Writes queued messages until the client is closed, flushing whenever the queue is empty so a frame's messages
+     * are sent together.
+     */
+    private void send() {
+        try {
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+            while (true) {
+                byte[] message = outgoing.take();
+                if (message == CLOSE) {
+                    return;
+                }
+                out.write(message);
+                if (outgoing.isEmpty()) {
+                    out.flush();
+                }
+            }
+        } catch (IOException e) {
+            // The reader thread reports the lost connection
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Reads messages from the server until the connection is closed, handing them to the event dispatch thread. Only
+     * one task is queued on the event dispatch thread at a time however fast messages arrive.
+     */
+    private void receive() {
+        try {
+            while (true) {
+                incoming.add(CollabProtocol.read(in));
+                if (applyScheduled.compareAndSet(false, true)) {
+                    SwingUtilities.invokeLater(this::applyIncoming);
+                }
+            }
+        } catch (IOException e) {
+            if (!closed) {
+                SwingUtilities.invokeLater(() -> {
+                    close();
+                    onDisconnect.accept(e);
+                });
+            }
+        }
+    }
+
+    /**
+     * Applies every message that has arrived, then redraws the drawing in order if it needs it and nobody is drawing.
+     */
+    private void applyIncoming() {
+        applyScheduled.set(false);
+        if (closed) {
+            return;
+        }
+
+        CollabProtocol.Message message;
+        while ((message = incoming.poll()) != null) {
+            apply(message);
+        }
+        redrawIfSettled();
+    }
+
+    /**
+     * @param message a message from the server
+     */
+    private void apply(CollabProtocol.Message message) {
+        boolean own = message.client == clientId;
+
+        // Sketches from unknown strokes are ignored, and the user's own undo and redo have already been applied
+        SharedSketch sketch = sketches.get(message.getStrokeKey());
+        switch (message.type) {
+            case CollabProtocol.BEGIN:
+                sketch = new SharedSketch(message);
+                sketches.put(message.getStrokeKey(), sketch);
+                order.put(message.sequence, sketch);
+                // Sketches drawn at the same time may have been layered in a different order on another screen
+                if (drawing > 0 || unconfirmed > (own ? 1 : 0)) {
+                    redrawNeeded = true;
+                }
+                drawing++;
+                if (!own) {
+                    drawLayer.remoteStrokeStarted();
+                    drawLayer.drawShape(sketch.startPoint, sketch.colour, sketch.width, sketch.reflect, sketch.erase);
+                }
+                break;
+            case CollabProtocol.LINES:
+                if (sketch == null || sketch.finished) {
+                    return;
+                }
+                for (int i = 0; i < message.points.length; i += 2) {
+                    Line2D line = sketch.lineTo(message.points[i], message.points[i + 1]);
+                    if (!own) {
+                        drawLayer.drawShape(line, sketch.colour, sketch.width, sketch.reflect, sketch.erase);
+                    }
+                }
+                break;
+            case CollabProtocol.END:
+                if (sketch == null || sketch.finished) {
+                    return;
+                }
+                sketch.finished = true;
+                drawing--;
+                if (own) {
+                    unconfirmed--;
+                } else {
+                    drawLayer.addSketch(sketch.toSketch());
+                }
+                break;
+            case CollabProtocol.UNDO:
+            case CollabProtocol.REDO:
+                if (sketch == null || own) {
+                    return;
+                }
+                sketch.undone = message.type == CollabProtocol.UNDO;
+                redrawNeeded = true;
+                break;
+            default:
+                break;
+        }
+    }
+
+    /**
+     * Redraws the finished sketches in sequence order if anything has changed the order, once no sketch is being drawn
+     * so nobody's sketch is wiped while they draw it.
+     */
+    private void redrawIfSettled() {
+        if (!redrawNeeded || drawing > 0 || unconfirmed > 0) {
+            return;
+        }
+        redrawNeeded = false;
+        drawLayer.loadSketches(visibleSketches());
+    }
+
+    /**
+     * @return the finished sketches that have not been undone, in sequence order
+     */
+    private List<Sketch> visibleSketches() {
+        List<Sketch> visible = new ArrayList<>();
+        for (SharedSketch sketch : order.values()) {
+            if (sketch.finished && !sketch.undone) {
+                visible.add(sketch.toSketch());
+            }
+        }
+        return visible;
+    }
+
+    /**
+     * A sketch in the session, built up as its messages arrive.
+     */
+    private static class SharedSketch {
+        private final int client;
+        private final int stroke;
+        private final Color colour;
+        private final int width;
+        private final boolean reflect;
+        private final boolean erase;
+        private final Ellipse2D startPoint;
+        private final List<Line2D> lines = new ArrayList<>();
+
+        // The end of the last line, where the next one starts
+        private double lastX, lastY;
+
+        private boolean finished;
+        private boolean undone;
+
+        // Created once the sketch is finished
+        private Sketch sketch;
+
+        /**
+         * @param begin the BEGIN message of the sketch
+         */
+        SharedSketch(CollabProtocol.Message begin) {
+            client = begin.client;
+            stroke = begin.stroke;
+            colour = begin.colour;
+            width = begin.width;
+            reflect = begin.getReflect();
+            erase = begin.getErase();
+            lastX = begin.points[0];
+            lastY = begin.points[1];
+            startPoint = DoilyRenderer.createStartPoint(lastX, lastY, width);
+        }
+
+        /**
+         * @param x the horizontal position the new line ends at
+         * @param y the vertical position the new line ends at
+         * @return the new line, from the end of the last one
+         */
+        Line2D lineTo(double x, double y) {
+            Line2D line = new Line2D.Double(lastX, lastY, x, y);
+            lines.add(line);
+            lastX = x;
+            lastY = y;
+            return line;
+        }
+
+        /**
+         * @return the finished sketch
+         */
+        Sketch toSketch() {
+            if (sketch == null) {
+                sketch = new Sketch(colour, width, reflect, erase, startPoint, lines);
+            }
+            return sketch;
+        }
+    }
+}
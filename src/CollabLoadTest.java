@@ -0,0 +1,270 @@
+import java.awt.*;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures how quickly the collaboration server passes messages on when many users draw at once. A server is started
+ * on localhost and the chosen number of simulated clients connect to it. Each draws sketches the way the editor sends
+ * them, one batch of points per frame, while every client times how long each message from the other clients took to
+ * arrive. The latencies and throughput are printed once every sketch has been received.
+ */
+class CollabLoadTest {
+
+    // The time between batches of points, matching the editor's frame batching
+    private static final int FRAME_DELAY = 16;
+
+    // How long to wait for every message to arrive before giving up, in seconds
+    private static final int TIMEOUT = 120;
+
+    private int clients = 32;
+    private int strokes = 20;
+    private int pointsPerStroke = 60;
+    private int pointsPerFrame = 4;
+
+    // The time each message was sent, by stroke key and the message's position in the sketch
+    private final Map<Long, long[]> sent = new ConcurrentHashMap<>();
+
+    /**
+     * Parses the command line and runs the test.
+     * Usage: collab-load-test [--clients N] [--strokes N] [--points N] [--points-per-frame N]
+     * @param args command line arguments, without the leading "collab-load-test"
+     */
+    static void main(String[] args) throws Exception {
+        CollabLoadTest test = new CollabLoadTest();
+        for (int i = 0; i + 1 < args.length; i += 2) {
+            int value = Integer.parseInt(args[i + 1]);
+            switch (args[i]) {
+                case "--clients":
+                    test.clients = value;
+                    break;
+                case "--strokes":
+                    test.strokes = value;
+                    break;
+                case "--points":
+                    test.pointsPerStroke = value;
+                    break;
+                case "--points-per-frame":
+                    test.pointsPerFrame = value;
+                    break;
+                default:
+                    throw new IllegalArgumentException("Unknown option " + args[i]);
+            }
+        }
+        test.run();
+    }
+
+    /**
+     * Starts the server and clients, waits for every sketch to reach every client and prints the results.
+     */
+    void run() throws IOException, InterruptedException {
+        CollabServer server = new CollabServer(InetAddress.getLoopbackAddress(), 0);
+        server.start();
+
+        // Messages per sketch: BEGIN, the batches of points, then END
+        int batches = (pointsPerStroke + pointsPerFrame - 1) / pointsPerFrame;
+        int messagesPerStroke = batches + 2;
+
+        CountDownLatch go = new CountDownLatch(1);
+        CountDownLatch finished = new CountDownLatch(clients);
+        List<SimulatedClient> simulated = new ArrayList<>();
+        for (int i = 0; i < clients; i++) {
+            SimulatedClient client = new SimulatedClient(server.getPort(), i, go, finished);
+            simulated.add(client);
+        }
+
+        long start = System.nanoTime();
+        go.countDown();
+        boolean complete = finished.await(TIMEOUT, TimeUnit.SECONDS);
+        double seconds = (System.nanoTime() - start) / 1e9;
+        server.close();
+
+        // Combine every client's latencies
+        long[] latencies = new long[0];
+        long received = 0;
+        for (SimulatedClient client : simulated) {
+            long[] own = Arrays.copyOf(client.latencies, client.latencyCount);
+            int offset = latencies.length;
+            latencies = Arrays.copyOf(latencies, offset + own.length);
+            System.arraycopy(own, 0, latencies, offset, own.length);
+            received += client.received;
+        }
+        Arrays.sort(latencies);
+
+        long sentMessages = (long) clients * strokes * messagesPerStroke;
+        System.out.printf("%d clients drew %d sketches: %d messages sent, %d delivered in %.2fs (%.0f messages/sec)%n",
+                clients, clients * strokes, sentMessages, received, seconds, received / seconds);
+        System.out.printf("Fan-out latency: p50 %.2f ms, p95 %.2f ms, p99 %.2f ms, max %.2f ms%n",
+                percentile(latencies, 0.50), percentile(latencies, 0.95), percentile(latencies, 0.99),
+                percentile(latencies, 1.0));
+        if (!complete) {
+            System.out.println("Timed out before every message arrived");
+            System.exit(1);
+        }
+    }
+
+    /**
+     * @param sorted latencies in nanoseconds, sorted
+     * @param fraction the fraction of latencies that are no higher than the result
+     * @return the latency in milliseconds
+     */
+    private static double percentile(long[] sorted, double fraction) {
+        if (sorted.length == 0) {
+            return 0;
+        }
+        int index = (int) Math.ceil(fraction * sorted.length) - 1;
+        return sorted[Math.max(0, index)] / 1e6;
+    }
+
+    /**
+     * A client that connects to the server, draws random sketches on one thread and reads every message on another.
+     */
+    private class SimulatedClient {
+        private final Socket socket;
+        private final DataInputStream in;
+        private final DataOutputStream out;
+        private final int id;
+
+        // Written only by the reader thread and read once it has finished
+        private long[] latencies = new long[1024];
+        private int latencyCount;
+        private long received;
+
+        /**
+         * Connects to the server and starts the reader and sender threads.
+         * @param port the server's port
+         * @param index the number of the client, used to seed its random sketches
+         * @param go released once every client has connected
+         * @param finished counted down once every other client's sketches have arrived
+         * @throws IOException if the server cannot be reached
+         */
+        SimulatedClient(int port, int index, CountDownLatch go, CountDownLatch finished) throws IOException {
+            socket = new Socket(InetAddress.getLoopbackAddress(), port);
+            socket.setTcpNoDelay(true);
+            out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+            out.writeInt(CollabProtocol.MAGIC);
+            out.writeInt(CollabProtocol.VERSION);
+            out.flush();
+
+            in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+            id = CollabProtocol.read(in).client;
+
+            Thread reader = new Thread(() -> receive(finished), "Load test reader " + index);
+            reader.setDaemon(true);
+            reader.start();
+
+            Thread sender = new Thread(() -> draw(index, go), "Load test sender " + index);
+            sender.setDaemon(true);
+            sender.start();
+        }
+
+        /**
+         * Draws random walks, sending one batch of points per frame and recording when each message was sent.
+         * @param index the number of the client, used as the random seed
+         * @param go released once every client has connected
+         */
+        private void draw(int index, CountDownLatch go) {
+            Random random = new Random(index);
+            int batches = (pointsPerStroke + pointsPerFrame - 1) / pointsPerFrame;
+            double[] points = new double[pointsPerFrame * 2];
+            try {
+                go.await();
+                for (int stroke = 0; stroke < strokes; stroke++) {
+                    long[] times = new long[batches + 2];
+                    sent.put(CollabProtocol.strokeKey(id, stroke), times);
+
+                    double x = random.nextDouble();
+                    double y = random.nextDouble();
+                    times[0] = System.nanoTime();
+                    send(CollabProtocol.begin(stroke, new Color(random.nextInt()), 1 + random.nextInt(15),
+                            random.nextBoolean(), false, x, y));
+
+                    int remaining = pointsPerStroke;
+                    for (int batch = 1; batch <= batches; batch++) {
+                        Thread.sleep(FRAME_DELAY);
+                        int count = Math.min(pointsPerFrame, remaining);
+                        for (int i = 0; i < count; i++) {
+                            x = Math.min(1, Math.max(0, x + (random.nextDouble() - 0.5) * 0.02));
+                            y = Math.min(1, Math.max(0, y + (random.nextDouble() - 0.5) * 0.02));
+                            points[i * 2] = x;
+                            points[i * 2 + 1] = y;
+                        }
+                        remaining -= count;
+                        times[batch] = System.nanoTime();
+                        send(CollabProtocol.lines(stroke, points, count));
+                    }
+
+                    times[batches + 1] = System.nanoTime();
+                    send(CollabProtocol.command(CollabProtocol.END, stroke));
+                }
+            } catch (IOException e) {
+                System.err.println("Client " + index + " failed to send: " + e.getMessage());
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+
+        /**
+         * @param message a message to write and flush straight away, as the editor does at the end of each frame
+         * @throws IOException if the server has gone
+         */
+        private void send(byte[] message) throws IOException {
+            out.write(message);
+            out.flush();
+        }
+
+        /**
+         * Reads messages, timing those from other clients, until every other client's sketches have finished.
+         * @param finished counted down once they have all arrived
+         */
+        private void receive(CountDownLatch finished) {
+            // The number of messages received so far for each sketch, which gives each message's position
+            Map<Long, Integer> positions = new HashMap<>();
+            int expectedEnds = (clients - 1) * strokes;
+            int ends = 0;
+            try {
+                while (ends < expectedEnds) {
+                    CollabProtocol.Message message = CollabProtocol.read(in);
+                    long now = System.nanoTime();
+                    received++;
+                    if (message.client == id) {
+                        continue;
+                    }
+
+                    long key = message.getStrokeKey();
+                    int position = positions.merge(key, 1, Integer::sum) - 1;
+                    record(now - sent.get(key)[position]);
+                    if (message.type == CollabProtocol.END) {
+                        ends++;
+                    }
+                }
+                finished.countDown();
+            } catch (IOException e) {
+                // The server was closed before everything arrived, the test reports the time out
+            }
+        }
+
+        /**
+         * @param latency a message's latency in nanoseconds
+         */
+        private void record(long latency) {
+            if (latencyCount == latencies.length) {
+                latencies = Arrays.copyOf(latencies, latencies.length * 2);
+            }
+            latencies[latencyCount++] = latency;
+        }
+    }
+}
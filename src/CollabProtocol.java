@@ -0,0 +1,276 @@
+import java.awt.*;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+
+/**
+ * The binary messages sent between the collaboration server and its clients. A client sends the parts of each sketch
+ * as they are drawn: BEGIN with the brush and start point, LINES with the points dragged through since the last
+ * message, then END. The server stamps every message with a sequence number and the id of the client that sent it,
+ * and passes it on to every client in that order, so all clients agree on the order sketches were started and undone.
+ *
+ * Client to server: type (byte), then the body.
+ * Server to client: type (byte), sequence (int), client id (int), then the body. HELLO only holds the client id.
+ *
+ * Bodies, all coordinates are canvas coordinates from 0 to 1 stored as doubles, so every screen draws exactly the
+ * points the sketch's own drawer keeps:
+ * BEGIN - stroke id (int), colour (int ARGB), width (unsigned short), flags (byte: 1 reflect, 2 erase), x, y
+ * LINES - stroke id (int), count (short), then count x, y pairs each ending a line that starts where the last ended
+ * END, UNDO, REDO - stroke id (int)
+ */
+final class CollabProtocol {
+
+    // The port the server listens on unless another is chosen
+    static final int DEFAULT_PORT = 8766;
+
+    // Sent by the client when it connects ("DOIC") so other services on the port are rejected
+    static final int MAGIC = 0x444F4943;
+
+    // Incremented whenever the layout of a message changes
+    static final int VERSION = 2;
+
+    // Message types
+    static final byte HELLO = 0;
+    static final byte BEGIN = 1;
+    static final byte LINES = 2;
+    static final byte END = 3;
+    static final byte UNDO = 4;
+    static final byte REDO = 5;
+
+    // The most points sent in one LINES message, longer batches are split
+    static final int MAX_POINTS = 4096;
+
+    // The widest brush a BEGIN message can hold
+    static final int MAX_WIDTH = 0xFFFF;
+
+    // The flag bits of BEGIN
+    private static final int REFLECT = 1;
+    private static final int ERASE = 2;
+
+    // The size of a BEGIN body after the type, and of each x, y pair in LINES
+    private static final int BEGIN_BODY = 4 + 4 + 2 + 1 + 16;
+    private static final int POINT_SIZE = 16;
+
+    /**
+     * Only static helpers are provided so the class should not be instantiated.
+     */
+    private CollabProtocol() {
+    }
+
+    /**
+     * @param stroke the id the client gave the sketch
+     * @param colour the brush colour
+     * @param width the brush width
+     * @param reflect whether the sketch is reflected
+     * @param erase whether the sketch clears other sketches
+     * @param x the horizontal position of the start point
+     * @param y the vertical position of the start point
+     * @return a BEGIN message to send to the server
+     * @throws IllegalArgumentException if the width is negative or wider than MAX_WIDTH
+     */
+    static byte[] begin(int stroke, Color colour, int width, boolean reflect, boolean erase, double x, double y) {
+        if (width < 0 || width > MAX_WIDTH) {
+            throw new IllegalArgumentException("Brush width " + width + " cannot be shared");
+        }
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(1 + BEGIN_BODY);
+        DataOutputStream out = new DataOutputStream(bytes);
+        try {
+            out.writeByte(BEGIN);
+            out.writeInt(stroke);
+            out.writeInt(colour.getRGB());
+            out.writeShort(width);
+            out.writeByte((reflect ? REFLECT : 0) | (erase ? ERASE : 0));
+            out.writeDouble(x);
+            out.writeDouble(y);
+        } catch (IOException e) {
+            // Writing to memory cannot fail
+            throw new UncheckedIOException(e);
+        }
+        return bytes.toByteArray();
+    }
+
+    /**
+     * @param stroke the id the client gave the sketch
+     * @param points x, y pairs of the points dragged through
+     * @param count the number of points to send, no more than MAX_POINTS
+     * @return a LINES message to send to the server
+     */
+    static byte[] lines(int stroke, double[] points, int count) {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(7 + count * POINT_SIZE);
+        DataOutputStream out = new DataOutputStream(bytes);
+        try {
+            out.writeByte(LINES);
+            out.writeInt(stroke);
+            out.writeShort(count);
+            for (int i = 0; i < count * 2; i++) {
+                out.writeDouble(points[i]);
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return bytes.toByteArray();
+    }
+
+    /**
+     * @param type END, UNDO or REDO
+     * @param stroke the id the client gave the sketch
+     * @return a message to send to the server
+     */
+    static byte[] command(byte type, int stroke) {
+        return new byte[]{type, (byte) (stroke >>> 24), (byte) (stroke >>> 16), (byte) (stroke >>> 8), (byte) stroke};
+    }
+
+    /**
+     * Reads the body of a message sent by a client, used by the server to pass it on without decoding it.
+     * @param in the stream from the client
+     * @param type the type of the message, which has already been read
+     * @return the body
+     * @throws IOException if the stream cannot be read or the message is not valid
+     */
+    static byte[] readBody(DataInputStream in, byte type) throws IOException {
+        byte[] body;
+        switch (type) {
+            case BEGIN:
+                body = new byte[BEGIN_BODY];
+                in.readFully(body);
+                break;
+            case LINES:
+                int stroke = in.readInt();
+                int count = in.readUnsignedShort();
+                if (count > MAX_POINTS) {
+                    throw new IOException("Too many points in one message: " + count);
+                }
+                body = new byte[6 + count * POINT_SIZE];
+                body[0] = (byte) (stroke >>> 24);
+                body[1] = (byte) (stroke >>> 16);
+                body[2] = (byte) (stroke >>> 8);
+                body[3] = (byte) stroke;
+                body[4] = (byte) (count >>> 8);
+                body[5] = (byte) count;
+                in.readFully(body, 6, count * POINT_SIZE);
+                break;
+            case END:
+            case UNDO:
+            case REDO:
+                body = new byte[4];
+                in.readFully(body);
+                break;
+            default:
+                throw new IOException("Unknown message type " + type);
+        }
+        return body;
+    }
+
+    /**
+     * Reads and decodes the next message sent by the server.
+     * @param in the stream from the server
+     * @return the message
+     * @throws IOException if the stream cannot be read or the message is not valid
+     */
+    static Message read(DataInputStream in) throws IOException {
+        byte type = in.readByte();
+        if (type == HELLO) {
+            return new Message(HELLO, 0, in.readInt(), 0, null, 0, 0, null);
+        }
+
+        int sequence = in.readInt();
+        int client = in.readInt();
+        int stroke = in.readInt();
+        switch (type) {
+            case BEGIN:
+                Color colour = new Color(in.readInt(), true);
+                int width = in.readUnsignedShort();
+                int flags = in.readUnsignedByte();
+                double[] start = {in.readDouble(), in.readDouble()};
+                return new Message(BEGIN, sequence, client, stroke, colour, width, flags, start);
+            case LINES:
+                int count = in.readUnsignedShort();
+                if (count > MAX_POINTS) {
+                    throw new IOException("Too many points in one message: " + count);
+                }
+                double[] points = new double[count * 2];
+                for (int i = 0; i < points.length; i++) {
+                    points[i] = in.readDouble();
+                }
+                return new Message(LINES, sequence, client, stroke, null, 0, 0, points);
+            case END:
+            case UNDO:
+            case REDO:
+                return new Message(type, sequence, client, stroke, null, 0, 0, null);
+            default:
+                throw new IOException("Unknown message type " + type);
+        }
+    }
+
+    /**
+     * A decoded message from the server. Fields which the type does not use are null or zero.
+     */
+    static final class Message {
+        final byte type;
+        final int sequence;
+        final int client;
+        final int stroke;
+
+        // BEGIN only
+        final Color colour;
+        final int width;
+        private final int flags;
+
+        // The start point for BEGIN and the points dragged through for LINES, as x, y pairs
+        final double[] points;
+
+        /**
+         * @param type the message type
+         * @param sequence the order the server received the message in
+         * @param client the id of the client that sent it, or the receiving client's own id for HELLO
+         * @param stroke the id the sending client gave the sketch
+         * @param colour the brush colour
+         * @param width the brush width
+         * @param flags the reflect and erase bits
+         * @param points the start point or the points dragged through
+         */
+        private Message(byte type, int sequence, int client, int stroke, Color colour, int width, int flags,
+                        double[] points) {
+            this.type = type;
+            this.sequence = sequence;
+            this.client = client;
+            this.stroke = stroke;
+            this.colour = colour;
+            this.width = width;
+            this.flags = flags;
+            this.points = points;
+        }
+
+        /**
+         * @return true if the sketch is reflected
+         */
+        boolean getReflect() {
+            return (flags & REFLECT) != 0;
+        }
+
+        /**
+         * @return true if the sketch clears other sketches
+         */
+        boolean getErase() {
+            return (flags & ERASE) != 0;
+        }
+
+        /**
+         * @return a key for the sketch which is unique across every client in the session
+         */
+        long getStrokeKey() {
+            return strokeKey(client, stroke);
+        }
+    }
+
+    /**
+     * @param client the id of the client that drew the sketch
+     * @param stroke the id the client gave the sketch
+     * @return a key for the sketch which is unique across every client in the session
+     */
+    static long strokeKey(int client, int stroke) {
+        return ((long) client << 32) | (stroke & 0xFFFFFFFFL);
+    }
+}
@@ -0,0 +1,282 @@
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.LinkedBlockingQueue;
+
+/**
+ * Hosts a shared drawing session. Each message a client sends is stamped with the next sequence number and queued for
+ * every client, including the sender, so all clients receive the same messages in the same order. Every message is
+ * also kept so a client joining later is sent the drawing so far. Each client has its own writer thread, so a slow
+ * client delays only itself, and a client that falls too far behind is disconnected.
+ */
+class CollabServer {
+
+    // The most new messages that may be waiting for one client before it is disconnected
+    private static final int MAX_QUEUED = 1 << 16;
+
+    // Put in a client's queue to stop its writer thread
+    private static final byte[] CLOSE = new byte[0];
+
+    private final ServerSocket serverSocket;
+
+    // The clients currently connected
+    private final List<Connection> connections = new CopyOnWriteArrayList<>();
+
+    // Every message sent so far in order, guarded by this object along with the counters
+    private final List<byte[]> log = new ArrayList<>();
+    private int sequence;
+    private int nextClient;
+
+    /**
+     * Opens the server socket. Call start to begin accepting clients.
+     * @param address the address to listen on, or null for every address so other machines on the network can join
+     * @param port the port to listen on, or 0 for any free port
+     * @throws IOException if the socket cannot be opened
+     */
+    CollabServer(InetAddress address, int port) throws IOException {
+        serverSocket = new ServerSocket();
+        serverSocket.bind(new InetSocketAddress(address, port));
+    }
+
+    /**
+     * @return the port the server is listening on
+     */
+    int getPort() {
+        return serverSocket.getLocalPort();
+    }
+
+    /**
+     * Starts a thread to accept clients.
+     */
+    void start() {
+        Thread thread = new Thread(this::accept, "Collaboration server");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /**
+     * Stops accepting clients and disconnects every client.
+     */
+    void close() {
+        try {
+            serverSocket.close();
+        } catch (IOException e) {
+            // The server is shutting down anyway
+        }
+        for (Connection connection : connections) {
+            connection.close();
+        }
+    }
+
+    /**
+     * Accepts clients until the server is closed, starting a reader thread for each.
+     */
+    private void accept() {
+        while (!serverSocket.isClosed()) {
+            try {
+                Socket socket = serverSocket.accept();
+                socket.setTcpNoDelay(true);
+                Thread reader =
+                        new Thread(() -> serve(socket), "Collaboration client " + socket.getRemoteSocketAddress());
+                reader.setDaemon(true);
+                reader.start();
+            } catch (IOException e) {
+                // Thrown when the server socket is closed, which ends the loop
+            }
+        }
+    }
+
+    /**
+     * Checks the client is speaking the protocol, sends it the drawing so far, then passes on each message it sends.
+     * @param socket the client's socket
+     */
+    private void serve(Socket socket) {
+        Connection connection = null;
+        try {
+            DataInputStream in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+            if (in.readInt() != CollabProtocol.MAGIC || in.readInt() != CollabProtocol.VERSION) {
+                socket.close();
+                return;
+            }
+
+            connection = join(socket);
+            while (true) {
+                byte type = in.readByte();
+                byte[] body = CollabProtocol.readBody(in, type);
+                connection.track(type, body);
+                broadcast(type, connection.id, body);
+            }
+        } catch (IOException e) {
+            // The client disconnected or sent something that is not a valid message
+        } finally {
+            if (connection != null) {
+                leave(connection);
+            } else {
+                try {
+                    socket.close();
+                } catch (IOException e) {
+                    // Already closing
+                }
+            }
+        }
+    }
+
+    /**
+     * Gives a new client its id, queues the drawing so far and adds it to the clients receiving new messages. This is
+     * done under the same lock as broadcast so no message is missed or sent twice.
+     * @param socket the client's socket
+     * @return the new connection
+     */
+    private synchronized Connection join(Socket socket) {
+        Connection connection = new Connection(socket, nextClient++, log.size() + MAX_QUEUED);
+        connection.queue.add(ByteBuffer.allocate(5).put(CollabProtocol.HELLO).putInt(connection.id).array());
+        connection.queue.addAll(log);
+        connections.add(connection);
+        connection.start();
+        return connection;
+    }
+
+    /**
+     * Removes a client, ending any sketches it left unfinished so other clients do not wait for them.
+     * @param connection the client that disconnected
+     */
+    private void leave(Connection connection) {
+        connections.remove(connection);
+        connection.close();
+        for (int stroke : connection.unfinished()) {
+            byte[] body = ByteBuffer.allocate(4).putInt(stroke).array();
+            broadcast(CollabProtocol.END, connection.id, body);
+        }
+    }
+
+    /**
+     * Stamps a message with the next sequence number and queues it for every client.
+     * @param type the message type
+     * @param client the id of the client that sent it
+     * @param body the body of the message
+     */
+    private synchronized void broadcast(byte type, int client, byte[] body) {
+        byte[] message = ByteBuffer.allocate(9 + body.length)
+                .put(type).putInt(sequence++).putInt(client).put(body).array();
+        log.add(message);
+        for (Connection connection : connections) {
+            connection.send(message);
+        }
+    }
+
+    /**
+     * A connected client and the queue of messages waiting to be written to it.
+     */
+    private class Connection {
+        private final Socket socket;
+        private final int id;
+        private final BlockingQueue<byte[]> queue = new LinkedBlockingQueue<>();
+
+        // The queue may hold the whole drawing when the client joins, plus MAX_QUEUED new messages
+        private final int limit;
+
+        // The sketches the client has started but not finished, only used by the reader thread
+        private final Set<Integer> open = new HashSet<>();
+
+        /**
+         * @param socket the client's socket
+         * @param id the id given to the client
+         * @param limit the most messages that may be waiting before the client is disconnected
+         */
+        Connection(Socket socket, int id, int limit) {
+            this.socket = socket;
+            this.id = id;
+            this.limit = limit;
+        }
+
+        /**
+         * Starts the thread writing queued messages to the client.
+         */
+        void start() {
+            Thread writer = new Thread(this::write, "Collaboration writer " + id);
+            writer.setDaemon(true);
+            writer.start();
+        }
+
+        /**
+         * Writes queued messages, flushing whenever the queue is empty so messages queued together are sent together.
+         */
+        private void write() {
+            try {
+                DataOutputStream out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+                while (true) {
+                    byte[] message = queue.take();
+                    if (message == CLOSE) {
+                        return;
+                    }
+                    out.write(message);
+                    if (queue.isEmpty()) {
+                        out.flush();
+                    }
+                }
+            } catch (IOException | InterruptedException e) {
+                // The client disconnected, its reader thread will remove it
+                close();
+            }
+        }
+
+        /**
+         * Queues a message, disconnecting the client if it is not keeping up.
+         * @param message the message
+         */
+        void send(byte[] message) {
+            if (queue.size() >= limit) {
+                close();
+            } else {
+                queue.add(message);
+            }
+        }
+
+        /**
+         * Keeps track of which sketches the client has open.
+         * @param type the message type
+         * @param body the body of the message, which starts with the stroke id
+         */
+        void track(byte type, byte[] body) {
+            int stroke = ByteBuffer.wrap(body).getInt();
+            if (type == CollabProtocol.BEGIN) {
+                open.add(stroke);
+            } else if (type == CollabProtocol.END) {
+                open.remove(stroke);
+            }
+        }
+
+        /**
+         * @return the sketches the client started but did not finish
+         */
+        Set<Integer> unfinished() {
+            return open;
+        }
+
+        /**
+         * Closes the socket, which stops the reader thread, and stops the writer thread.
+         */
+        void close() {
+            queue.clear();
+            queue.add(CLOSE);
+            try {
+                socket.close();
+            } catch (IOException e) {
+                // The client is being dropped anyway
+            }
+        }
+    }
+}
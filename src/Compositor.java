@@ -0,0 +1,96 @@
+import javax.swing.*;
+import java.awt.*;
+import java.awt.image.BufferedImage;
+
+/**
+ * Keeps a single opaque frame holding the drawing already blended over the background. Only the areas that have
+ * changed since the last paint are blended again, and the finished frame is drawn to the screen in one go instead of
+ * blending a full transparent layer over the background on every repaint.
+ */
+class Compositor {
+
+    // The blended frame, in the screen's own pixel format where possible
+    private BufferedImage frame;
+
+    // The area of the frame that needs blending again, in pixels
+    private Rectangle dirty;
+
+    // Flag set when the whole frame needs blending again
+    private boolean allDirty = true;
+
+    // The background blended into the frame last time, so a different background can be noticed
+    private BufferedImage lastBackground;
+
+    /**
+     * Marks an area of the frame as needing to be blended again.
+     * @param area the changed area in pixels
+     */
+    void invalidate(Rectangle area) {
+        if (dirty == null) {
+            dirty = new Rectangle(area);
+        } else {
+            dirty.add(area);
+        }
+    }
+
+    /**
+     * Marks the whole frame as needing to be blended again.
+     */
+    void invalidateAll() {
+        allDirty = true;
+    }
+
+    /**
+     * Forgets the frame, used when the document is no longer shown. A new frame is blended on the next paint.
+     */
+    void release() {
+        frame = null;
+        lastBackground = null;
+        dirty = null;
+        allDirty = true;
+    }
+
+    /**
+     * Blends the changed areas of the layers into the frame and draws the frame onto the component.
+     * @param g the graphics object of the component
+     * @param component the component being painted
+     * @param background the opaque background, the same size in pixels as the frame
+     * @param drawing the transparent drawing
+     * @param drawingX the horizontal position of the drawing within the frame in pixels
+     * @param drawingY the vertical position of the drawing within the frame in pixels
+     */
+    void paint(Graphics g, JComponent component, BufferedImage background, BufferedImage drawing,
+               int drawingX, int drawingY) {
+        int width = background.getWidth();
+        int height = background.getHeight();
+
+        // Create a new frame when there isn't one or the component has changed size
+        if (frame == null || frame.getWidth() != width || frame.getHeight() != height) {
+            GraphicsConfiguration config = component.getGraphicsConfiguration();
+            frame = config != null ? config.createCompatibleImage(width, height)
+                    : new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+            allDirty = true;
+        }
+
+        // The background is cached per setting, so a different image means the settings have changed
+        if (background != lastBackground) {
+            lastBackground = background;
+            allDirty = true;
+        }
+
+        if (allDirty || dirty != null) {
+            Graphics2D blend = frame.createGraphics();
+            if (!allDirty) {
+                blend.clip(dirty);
+            }
+            blend.drawImage(background, 0, 0, null);
+            blend.drawImage(drawing, drawingX, drawingY, null);
+            blend.dispose();
+
+            allDirty = false;
+            dirty = null;
+        }
+
+        g.drawImage(frame, 0, 0, component.getWidth(), component.getHeight(), null);
+    }
+}
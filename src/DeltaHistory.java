@@ -0,0 +1,192 @@
+import java.awt.*;
+import java.awt.image.BufferedImage;
+import java.nio.ByteBuffer;
+import java.util.BitSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * Records the pixels each sketch changed so it can be undone and redone without redrawing every other sketch. For
+ * each sketch the tiles it touched are stored compressed, as they were before it was drawn. Undoing swaps those
+ * tiles into the image and keeps the tiles that were replaced, so redoing is the same swap in reverse. Both cost
+ * time in proportion to the area of the sketch. The total size is capped, and once it is exceeded the oldest
+ * sketches lose their tiles and fall back to being undone by redrawing.
+ */
+class DeltaHistory {
+
+    /* The compressed tiles recorded for each sketch, in the order they were recorded so the oldest can be dropped
+       first. Sketches do not override equals, so each is its own key. */
+    private final LinkedHashMap<Sketch, Delta> deltas = new LinkedHashMap<>();
+
+    // The maximum and current number of compressed bytes held
+    private final long maxBytes;
+    private long bytes;
+
+    /**
+     * @param maxBytes the total size of compressed tiles that may be held
+     */
+    DeltaHistory(long maxBytes) {
+        this.maxBytes = maxBytes;
+    }
+
+    /**
+     * Records the tiles a sketch touched as they were before it was drawn.
+     * @param sketch the sketch that has just been drawn
+     * @param before a tiled copy of the image taken before the sketch was drawn
+     * @param touched the tiles the sketch drew on
+     */
+    void record(Sketch sketch, SparseImage before, BitSet touched) {
+        Delta delta = new Delta(touched.cardinality());
+        int i = 0;
+        for (int tile = touched.nextSetBit(0); tile >= 0; tile = touched.nextSetBit(tile + 1)) {
+            delta.tiles[i] = tile;
+            delta.pixels[i] = compress(before.getTile(tile));
+            delta.bytes += delta.pixels[i].length;
+            i++;
+        }
+
+        // Recording a sketch again moves it to the end as the newest
+        remove(sketch);
+        deltas.put(sketch, delta);
+        bytes += delta.bytes;
+        trim();
+    }
+
+    /**
+     * Undoes or redoes a sketch by swapping its recorded tiles with the tiles currently in the image. The image must
+     * be in the state straight after the sketch was drawn to undo it, or straight before to redo it.
+     * @param sketch the sketch to undo or redo
+     * @param image the image the sketch was drawn on
+     * @param snapshot the tiled copy of the image, whose dirty bits are set for the swapped tiles
+     * @return the area that changed in pixels, or null if the sketch has no recorded tiles and must be redrawn
+     */
+    Rectangle swap(Sketch sketch, BufferedImage image, SparseImage snapshot) {
+        Delta delta = deltas.get(sketch);
+        if (delta == null) {
+            return null;
+        }
+
+        Rectangle area = null;
+        int[] current = new int[SparseImage.TILE_SIZE * SparseImage.TILE_SIZE];
+        for (int i = 0; i < delta.tiles.length; i++) {
+            Rectangle bounds = snapshot.getTileBounds(delta.tiles[i]);
+
+            // Keep the pixels being replaced so the swap can be reversed
+            image.getRGB(bounds.x, bounds.y, bounds.width, bounds.height, current, 0, SparseImage.TILE_SIZE);
+            byte[] replaced = compress(current);
+            image.setRGB(bounds.x, bounds.y, bounds.width, bounds.height,
+                    decompress(delta.pixels[i]), 0, SparseImage.TILE_SIZE);
+
+            bytes += replaced.length - delta.pixels[i].length;
+            delta.bytes += replaced.length - delta.pixels[i].length;
+            delta.pixels[i] = replaced;
+
+            snapshot.markDirty(bounds);
+            if (area == null) {
+                area = bounds;
+            } else {
+                area.add(bounds);
+            }
+        }
+
+        // The replaced tiles may compress less well than the ones swapped in
+        trim();
+        return area != null ? area : new Rectangle();
+    }
+
+    /**
+     * Forgets the recorded tiles of a sketch, used when it can no longer be redone.
+     * @param sketch the sketch to forget
+     */
+    void remove(Sketch sketch) {
+        Delta delta = deltas.remove(sketch);
+        if (delta != null) {
+            bytes -= delta.bytes;
+        }
+    }
+
+    /**
+     * Forgets every recorded tile, used when the image is redrawn at a different size or number of sectors and the
+     * recorded pixels no longer match it.
+     */
+    void clear() {
+        deltas.clear();
+        bytes = 0;
+    }
+
+    /**
+     * Drops the oldest sketches until the cap is met, they will be undone by redrawing instead.
+     */
+    private void trim() {
+        Iterator<Delta> oldest = deltas.values().iterator();
+        while (bytes > maxBytes && oldest.hasNext()) {
+            bytes -= oldest.next().bytes;
+            oldest.remove();
+        }
+    }
+
+    /**
+     * @param pixels the pixels of a tile
+     * @return the pixels compressed with deflate
+     */
+    private static byte[] compress(int[] pixels) {
+        ByteBuffer raw = ByteBuffer.allocate(pixels.length * 4);
+        raw.asIntBuffer().put(pixels);
+
+        Deflater deflater = new Deflater(Deflater.BEST_SPEED);
+        deflater.setInput(raw.array());
+        deflater.finish();
+        byte[] buffer = new byte[raw.capacity() + 64];
+        int length = deflater.deflate(buffer);
+        deflater.end();
+
+        byte[] compressed = new byte[length];
+        System.arraycopy(buffer, 0, compressed, 0, length);
+        return compressed;
+    }
+
+    /**
+     * @param compressed the compressed pixels of a tile
+     * @return the pixels of the tile
+     */
+    private static int[] decompress(byte[] compressed) {
+        byte[] raw = new byte[SparseImage.TILE_SIZE * SparseImage.TILE_SIZE * 4];
+        Inflater inflater = new Inflater();
+        inflater.setInput(compressed);
+        try {
+            inflater.inflate(raw);
+        } catch (DataFormatException e) {
+            // The data was compressed by this class so this can only happen if memory has been corrupted
+            throw new IllegalStateException(e);
+        } finally {
+            inflater.end();
+        }
+
+        int[] pixels = new int[SparseImage.TILE_SIZE * SparseImage.TILE_SIZE];
+        ByteBuffer.wrap(raw).asIntBuffer().get(pixels);
+        return pixels;
+    }
+
+    /**
+     * The compressed tiles recorded for one sketch.
+     */
+    private static class Delta {
+        // The index of each tile and its compressed pixels
+        private final int[] tiles;
+        private final byte[][] pixels;
+
+        // The total size of the compressed pixels
+        private long bytes;
+
+        /**
+         * @param count the number of tiles
+         */
+        Delta(int count) {
+            tiles = new int[count];
+            pixels = new byte[count][];
+        }
+    }
+}
@@ -0,0 +1,131 @@
+import javax.swing.*;
+import java.awt.*;
+import java.awt.image.BufferedImage;
+import java.util.function.Consumer;
+
+/**
+ * One open doily, shown in its own tab of the editor. Each document has its own sketches, brush, number of sectors and
+ * symmetry, and its own draw and background layers. While another tab is shown the document releases its images and
+ * keeps only its sketches and a small thumbnail for its tab, so memory grows with the number of sketches rather than
+ * the number of open documents.
+ */
+class Document implements CanvasSettings {
+
+    // The width and height of the thumbnail shown on the tab
+    private static final int ICON_SIZE = 24;
+
+    // The name shown on the document's tab
+    private String name;
+
+    // The number of sectors the drawing is split into - 12 is the default
+    private int numberSectors = 12;
+
+    // The way the drawing is repeated across the canvas - rotation about the center is the default
+    private Symmetry symmetry = Symmetry.ROTATION;
+
+    // The background layer which holds the black backdrop and sector lines
+    private BackgroundLayer backgroundLayer;
+
+    // The layer on which the user draws their design, displayed over the background layer
+    private DrawLayer drawLayer;
+
+    // The icon shown on the tab, updated from the thumbnail each time the document is moved to the background
+    private Icon icon;
+
+    /**
+     * @param name the name shown on the document's tab
+     * @param renderExecutor the executor shared by every document to draw redraws and thumbnails on
+     * @param onIconChanged called on the event dispatch thread with the document when its tab's icon changes
+     */
+    Document(String name, RenderExecutor renderExecutor, Consumer<Document> onIconChanged) {
+        this.name = name;
+        backgroundLayer = new BackgroundLayer(this);
+        drawLayer = new DrawLayer(this, backgroundLayer);
+        drawLayer.setRenderExecutor(renderExecutor);
+        drawLayer.setThumbnailListener(thumbnail -> {
+            icon = createIcon(thumbnail);
+            onIconChanged.accept(this);
+        });
+    }
+
+    /**
+     * @return the number of sectors the drawing is repeated in
+     */
+    @Override
+    public int getNumberSectors() {
+        return numberSectors;
+    }
+
+    /**
+     * @param numberSectors the number of sectors to repeat the drawing in
+     */
+    void setNumberSectors(int numberSectors) {
+        this.numberSectors = numberSectors;
+    }
+
+    /**
+     * @return the way the drawing is repeated
+     */
+    @Override
+    public Symmetry getSymmetry() {
+        return symmetry;
+    }
+
+    /**
+     * @param symmetry the way to repeat the drawing
+     */
+    void setSymmetry(Symmetry symmetry) {
+        this.symmetry = symmetry;
+    }
+
+    /**
+     * @return the name shown on the document's tab
+     */
+    String getName() {
+        return name;
+    }
+
+    /**
+     * @return the icon shown on the document's tab, or null if it has none
+     */
+    Icon getIcon() {
+        return icon;
+    }
+
+    /**
+     * @return the layer the user draws on
+     */
+    DrawLayer getDrawLayer() {
+        return drawLayer;
+    }
+
+    /**
+     * @return the layer holding the backdrop and sector lines
+     */
+    BackgroundLayer getBackgroundLayer() {
+        return backgroundLayer;
+    }
+
+    /**
+     * Releases the document's images once another tab is shown, keeping a thumbnail of the drawing for the tab.
+     */
+    void deactivate() {
+        BufferedImage thumbnail = drawLayer.release();
+        icon = thumbnail != null ? createIcon(thumbnail) : null;
+    }
+
+    /**
+     * @param thumbnail a transparent thumbnail of the drawing
+     * @return an icon showing the thumbnail over the black backdrop, as it appears on the canvas
+     */
+    private static Icon createIcon(BufferedImage thumbnail) {
+        BufferedImage image = new BufferedImage(ICON_SIZE, ICON_SIZE, BufferedImage.TYPE_INT_RGB);
+        Graphics2D g2 = image.createGraphics();
+        g2.setPaint(Color.BLACK);
+        g2.fillRect(0, 0, ICON_SIZE, ICON_SIZE);
+        g2.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_BILINEAR);
+        g2.drawImage(thumbnail, 0, 0, ICON_SIZE, ICON_SIZE, null);
+        g2.dispose();
+        return new ImageIcon(image);
+    }
+}
@@ -0,0 +1,226 @@
+import java.awt.*;
+import java.awt.geom.Ellipse2D;
+import java.awt.geom.Line2D;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Generates histories of sketches to stress test the editor with drawings far larger than anyone would draw by hand.
+ * Each sketch is a random walk, a spiral or a patch of cross-hatching, with a random brush colour, width and reflect
+ * setting, and some are eraser strokes. The same seed always gives the same sketches, so timings and images can be
+ * compared between runs.
+ */
+class DoilyGenerator {
+
+    // The kinds of sketch that can be generated
+    private enum Style {
+        RANDOM_WALK, SPIRAL, CROSS_HATCH
+    }
+
+    private final Random random;
+
+    // The number of sketches to generate and the number of lines in each
+    private int strokes = 1000;
+    private int points = 20;
+
+    // The fraction of sketches which are eraser strokes, and the fraction which are reflected
+    private double eraseChance = 0.05;
+    private double reflectChance = 0.7;
+
+    /**
+     * @param seed the seed for the random numbers, the same seed gives the same sketches
+     */
+    DoilyGenerator(long seed) {
+        random = new Random(seed);
+    }
+
+    /**
+     * @param strokes the number of sketches to generate
+     * @throws IllegalArgumentException if the number is negative
+     */
+    void setStrokes(int strokes) {
+        if (strokes < 0) {
+            throw new IllegalArgumentException("The number of sketches cannot be negative");
+        }
+        this.strokes = strokes;
+    }
+
+    /**
+     * @param points the number of lines in each sketch, after the start point
+     * @throws IllegalArgumentException if the number is less than one, as every sketch starts where its first line does
+     */
+    void setPoints(int points) {
+        if (points < 1) {
+            throw new IllegalArgumentException("Every sketch needs at least one point");
+        }
+        this.points = points;
+    }
+
+    /**
+     * @param eraseChance the fraction of sketches which are eraser strokes, from 0 to 1
+     */
+    void setEraseChance(double eraseChance) {
+        this.eraseChance = eraseChance;
+    }
+
+    /**
+     * @param reflectChance the fraction of sketches which are reflected within each sector, from 0 to 1
+     */
+    void setReflectChance(double reflectChance) {
+        this.reflectChance = reflectChance;
+    }
+
+    /**
+     * @return the generated sketches, oldest first
+     */
+    List<Sketch> generate() {
+        List<Sketch> sketches = new ArrayList<>(strokes);
+        for (int i = 0; i < strokes; i++) {
+            sketches.add(nextSketch());
+        }
+        return sketches;
+    }
+
+    /**
+     * @return a new sketch in a random style
+     */
+    Sketch nextSketch() {
+        boolean erase = random.nextDouble() < eraseChance;
+
+        // Mostly thin brushes like a person would use, erasers are wider
+        int width = erase ? 8 + random.nextInt(8) : 1 + (int) (14 * Math.pow(random.nextDouble(), 2));
+        Color colour = Color.getHSBColor(random.nextFloat(), 0.5f + random.nextFloat() / 2,
+                0.7f + random.nextFloat() * 0.3f);
+        boolean reflect = random.nextDouble() < reflectChance;
+
+        List<Line2D> lines;
+        switch (Style.values()[random.nextInt(Style.values().length)]) {
+            case SPIRAL:
+                lines = spiral();
+                break;
+            case CROSS_HATCH:
+                lines = crossHatch();
+                break;
+            default:
+                lines = randomWalk();
+                break;
+        }
+
+        // The sketch starts where its first line does
+        Line2D first = lines.get(0);
+        Ellipse2D startPoint = DoilyRenderer.createStartPoint(first.getX1(), first.getY1(), width);
+        return new Sketch(colour, width, reflect, erase, startPoint, lines);
+    }
+
+    /**
+     * @return a path which turns a little at each step, like a hand drawn scribble
+     */
+    private List<Line2D> randomWalk() {
+        Polyline path = new Polyline(random.nextDouble(), random.nextDouble());
+        double angle = random.nextDouble() * 2 * Math.PI;
+        double step = 0.002 + random.nextDouble() * 0.01;
+        for (int i = 0; i < points; i++) {
+            angle += random.nextGaussian() * 0.5;
+            path.lineTo(path.x + Math.cos(angle) * step, path.y + Math.sin(angle) * step);
+        }
+        return path.lines;
+    }
+
+    /**
+     * @return a spiral out from a point near the center, turning either way
+     */
+    private List<Line2D> spiral() {
+        double centerX = 0.5 + random.nextGaussian() * 0.15;
+        double centerY = 0.5 + random.nextGaussian() * 0.15;
+        double radius = random.nextDouble() * 0.02;
+        double growth = (0.05 + random.nextDouble() * 0.2) / Math.max(1, points);
+        double turn = (random.nextBoolean() ? 1 : -1) * (0.1 + random.nextDouble() * 0.3);
+        double angle = random.nextDouble() * 2 * Math.PI;
+
+        Polyline path = new Polyline(centerX + Math.cos(angle) * radius, centerY + Math.sin(angle) * radius);
+        for (int i = 0; i < points; i++) {
+            angle += turn;
+            radius += growth;
+            path.lineTo(centerX + Math.cos(angle) * radius, centerY + Math.sin(angle) * radius);
+        }
+        return path.lines;
+    }
+
+    /**
+     * @return a zigzag of close parallel lines across a small patch, then back across it at right angles
+     */
+    private List<Line2D> crossHatch() {
+        double centerX = random.nextDouble();
+        double centerY = random.nextDouble();
+        double size = 0.02 + random.nextDouble() * 0.08;
+        double angle = random.nextDouble() * Math.PI;
+
+        // Half the points go each way, every pair of points crosses the patch and moves along to the next line
+        int passes = Math.max(1, points / 2);
+        double spacing = size / Math.max(1, passes / 2);
+
+        Polyline path = null;
+        for (int i = 0; i < points; i++) {
+            boolean secondHalf = i >= passes;
+            int line = (secondHalf ? i - passes : i) / 2;
+            double direction = angle + (secondHalf ? Math.PI / 2 : 0);
+
+            // Position along the patch, and which side of the patch the point is on
+            double along = -size / 2 + line * spacing;
+            double across = ((i % 2 == 0) == (line % 2 == 0) ? -1 : 1) * size / 2;
+            double x = centerX + Math.cos(direction) * across - Math.sin(direction) * along;
+            double y = centerY + Math.sin(direction) * across + Math.cos(direction) * along;
+
+            if (path == null) {
+                path = new Polyline(x, y);
+            } else {
+                path.lineTo(x, y);
+            }
+        }
+        // A single point hatch is drawn as a dot
+        if (path.lines.isEmpty()) {
+            path.lineTo(path.x, path.y);
+        }
+        return path.lines;
+    }
+
+    /**
+     * Joined lines which are kept on the canvas, each starting where the last ended.
+     */
+    private static class Polyline {
+        private final List<Line2D> lines = new ArrayList<>();
+
+        // The end of the last line
+        private double x, y;
+
+        /**
+         * @param x the horizontal position to start from
+         * @param y the vertical position to start from
+         */
+        Polyline(double x, double y) {
+            this.x = clamp(x);
+            this.y = clamp(y);
+        }
+
+        /**
+         * @param toX the horizontal position of the end of the new line
+         * @param toY the vertical position of the end of the new line
+         */
+        void lineTo(double toX, double toY) {
+            toX = clamp(toX);
+            toY = clamp(toY);
+            lines.add(new Line2D.Double(x, y, toX, toY));
+            x = toX;
+            y = toY;
+        }
+
+        /**
+         * @param value a coordinate
+         * @return the coordinate moved onto the canvas if it was off it
+         */
+        private static double clamp(double value) {
+            return Math.min(1, Math.max(0, value));
+        }
+    }
+}
@@ -0,0 +1,194 @@
+import java.awt.*;
+import java.awt.geom.AffineTransform;
+import java.awt.geom.Ellipse2D;
+import java.awt.geom.Line2D;
+import java.awt.geom.Rectangle2D;
+import java.awt.image.BufferedImage;
+import java.util.List;
+import java.util.function.BooleanSupplier;
+
+/**
+ * Draws sketches onto a graphics context, repeating them through every transform of a symmetry. This is shared by the
+ * draw layer and the headless renderers so a doily looks the same whether it is drawn live or rendered from a file.
+ * Sketches are stored in canvas coordinates, where the canvas runs from 0 to 1 in both directions, so the graphics
+ * context must be scaled to the size of the image being drawn on.
+ */
+class DoilyRenderer {
+
+    // The default width and height of a rendered doily. Brush widths are measured in pixels at this size.
+    static final int CANVAS_SIZE = 800;
+
+    /**
+     * Only static helpers are provided so the class should not be instantiated.
+     */
+    private DoilyRenderer() {
+    }
+
+    /**
+     * Draws a point or line through every transform in a symmetry table. It also sets the brush colour, size and
+     * switches between clearing or drawing depending on the erase flag. Copies which land off the canvas are skipped.
+     * @param g2 the graphics context to draw on
+     * @param shape the shape object to be drawn
+     * @param transforms the table of transforms to draw the shape through
+     * @param colour the brush colour
+     * @param width the brush width, in pixels on a canvas of the default size
+     * @param erase whether to clear the shape instead of painting it
+     * @return the area of the image that was drawn on, in pixels
+     */
+    static Rectangle drawShape(Graphics2D g2, Shape shape, List<AffineTransform> transforms, Color colour, int width,
+                               boolean erase) {
+        // Collects the bounds of every copy of the shape so the caller knows which pixels changed
+        Rectangle2D area = null;
+
+        // Set the brush width, scaled down to canvas coordinates
+        g2.setStroke(new BasicStroke((float) width / CANVAS_SIZE));
+
+        /* If the erase flag is true set the composite to clear the drawing
+           If not set the brush colour and set the composite to draw. */
+        if (erase) {
+            g2.setComposite(AlphaComposite.Clear);
+        } else {
+            g2.setComposite(AlphaComposite.Src);
+            g2.setPaint(colour);
+        }
+
+        // The canvas, widened by half the brush so copies just over the edge are still drawn
+        double margin = width / 2.0 / CANVAS_SIZE;
+        Rectangle2D canvas = new Rectangle2D.Double(-margin, -margin, 1 + 2 * margin, 1 + 2 * margin);
+
+        for (AffineTransform transform : transforms) {
+            Shape copy = transform.createTransformedShape(shape);
+            Rectangle2D bounds = copy.getBounds2D();
+            if (!bounds.intersects(canvas)) {
+                continue;
+            }
+
+            // Points are filled, lines are drawn with the brush
+            if (shape instanceof Ellipse2D) {
+                g2.fill(copy);
+            } else {
+                g2.draw(copy);
+            }
+            area = union(area, bounds);
+        }
+
+        if (area == null) {
+            return new Rectangle();
+        }
+
+        // Widen the area by half the brush, convert it to pixels and add a pixel either side for antialiasing
+        area.setRect(area.getX() - margin, area.getY() - margin,
+                area.getWidth() + 2 * margin, area.getHeight() + 2 * margin);
+        Rectangle pixels = g2.getTransform().createTransformedShape(area).getBounds();
+        pixels.grow(1, 1);
+        return pixels;
+    }
+
+    /**
+     * @param area the area collected so far, or null if nothing has been drawn yet
+     * @param bounds the bounds of the shape just drawn
+     * @return the area grown to include the bounds
+     */
+    private static Rectangle2D union(Rectangle2D area, Rectangle2D bounds) {
+        if (area == null) {
+            return bounds;
+        }
+        area.add(bounds);
+        return area;
+    }
+
+    /**
+     * Creates the point drawn at the start of a sketch, centered on the mouse with a diameter of 1.3 times the brush
+     * width as this gives a good size balance.
+     * @param x the horizontal position of the mouse in canvas coordinates
+     * @param y the vertical position of the mouse in canvas coordinates
+     * @param width the brush width, in pixels on a canvas of the default size
+     * @return the point in canvas coordinates
+     */
+    static Ellipse2D createStartPoint(double x, double y, int width) {
+        double diameter = width * 1.3 / CANVAS_SIZE;
+        return new Ellipse2D.Double(x - (diameter / 2), y - (diameter / 2), diameter, diameter);
+    }
+
+    /**
+     * Draws the start point and every line of a sketch using the brush settings saved with it.
+     * @param g2 the graphics context to draw on
+     * @param sketch the sketch to draw
+     * @param symmetry the way the sketch is repeated
+     * @param numberSectors the number of sectors the sketch is repeated in
+     * @param reflect whether to mirror the sketch within each sector, or null to use the setting saved with it
+     */
+    static void drawSketch(Graphics2D g2, Sketch sketch, Symmetry symmetry, int numberSectors, Boolean reflect) {
+        List<AffineTransform> transforms =
+                symmetry.getTransforms(numberSectors, reflect != null ? reflect : sketch.getReflect());
+
+        // Draw the start point before the lines
+        drawShape(g2, sketch.getStartPoint(), transforms, sketch.getColour(), sketch.getWidth(), sketch.getErase());
+
+        // Loop through each line in the sketch and draw them
+        for (Line2D line : sketch.getLines()) {
+            drawShape(g2, line, transforms, sketch.getColour(), sketch.getWidth(), sketch.getErase());
+        }
+    }
+
+    /**
+     * Clears a transparent image and draws a whole history of sketches onto it, scaling the canvas to the size of
+     * the image.
+     * @param sketches the sketches to draw, oldest first
+     * @param numberSectors the number of sectors the sketches are repeated in
+     * @param layer a TYPE_INT_ARGB image to draw onto, it may be reused between calls
+     */
+    static void render(List<Sketch> sketches, int numberSectors, BufferedImage layer) {
+        render(sketches, Symmetry.ROTATION, numberSectors, null, layer);
+    }
+
+    /**
+     * Clears a transparent image and draws a whole history of sketches onto it, scaling the canvas to the size of
+     * the image.
+     * @param sketches the sketches to draw, oldest first
+     * @param symmetry the way the sketches are repeated
+     * @param numberSectors the number of sectors the sketches are repeated in
+     * @param reflect whether to mirror every sketch, or null to use the setting saved with each sketch
+     * @param layer a TYPE_INT_ARGB image to draw onto, it may be reused between calls
+     */
+    static void render(List<Sketch> sketches, Symmetry symmetry, int numberSectors, Boolean reflect,
+                       BufferedImage layer) {
+        render(sketches, symmetry, numberSectors, reflect, layer, () -> false);
+    }
+
+    /**
+     * Clears a transparent image and draws a whole history of sketches onto it, stopping part way through if the
+     * render is no longer wanted. The flag is checked before each sketch.
+     * @param sketches the sketches to draw, oldest first
+     * @param symmetry the way the sketches are repeated
+     * @param numberSectors the number of sectors the sketches are repeated in
+     * @param reflect whether to mirror every sketch, or null to use the setting saved with each sketch
+     * @param layer a TYPE_INT_ARGB image to draw onto, it may be reused between calls
+     * @param stopped returns true once the render should stop
+     * @return true if every sketch was drawn, false if the render was stopped and the image is incomplete
+     */
+    static boolean render(List<Sketch> sketches, Symmetry symmetry, int numberSectors, Boolean reflect,
+                          BufferedImage layer, BooleanSupplier stopped) {
+        Graphics2D g2 = layer.createGraphics();
+
+        // Clear anything left over from a previous render
+        g2.setComposite(AlphaComposite.Clear);
+        g2.fillRect(0, 0, layer.getWidth(), layer.getHeight());
+
+        // Use antialiasing to match the draw layer and scale the canvas coordinates to the image
+        g2.setRenderingHint(RenderingHints.KEY_ANTIALIASING, RenderingHints.VALUE_ANTIALIAS_ON);
+        g2.scale(layer.getWidth(), layer.getHeight());
+
+        try {
+            for (Sketch sketch : sketches) {
+                if (stopped.getAsBoolean()) {
+                    return false;
+                }
+                drawSketch(g2, sketch, symmetry, numberSectors, reflect);
+            }
+            return true;
+        } finally {
+            g2.dispose();
+        }
+    }
+}
@@ -4,8 +4,12 @@ import java.awt.event.*;
 import java.awt.geom.AffineTransform;
 import java.awt.geom.Ellipse2D;
 import java.awt.geom.Line2D;
+import java.awt.geom.Rectangle2D;
 import java.awt.image.BufferedImage;
-import java.util.Stack;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Future;
+import java.util.function.Consumer;
 
 /**
  * The transparent drawing layer that the user draws their pattern on to. Each time the user presses the mouse a point
@@ -15,15 +19,64 @@ import java.util.Stack;
  */
 public class DrawLayer extends JPanel {
 
-    // Stores a reference to the editor class which holds the JFrame container
-    private Editor editor;
+    // The width and height of the thumbnail kept while the drawing is not shown
+    static final int THUMBNAIL_SIZE = 48;
+
+    // Stores a reference to the settings deciding how the drawing is repeated, which the editor provides
+    private CanvasSettings settings;
+
+    // The background drawn behind the image, and the compositor which blends the two into one frame for display
+    private BackgroundLayer backgroundLayer;
+    private Compositor compositor = new Compositor();
 
     // Stores the transparent image for the user to draw onto
     private BufferedImage image;
 
+    // A tiled copy of the image which is kept up to date by copying only the tiles that have been drawn on
+    private SparseImage snapshot;
+
     // References the graphics object for the image to ensure all methods can access it
     private Graphics2D g2;
 
+    /* The doily is drawn in the largest square that fits the layer. Store the size of the square and its offset in
+       screen units so mouse positions can be converted to canvas coordinates, which run from 0 to 1. */
+    private int side;
+    private int offsetX, offsetY;
+
+    // The number of image pixels per screen unit, and the position of the image within the frame in pixels
+    private double scale = 1;
+    private int imageX, imageY;
+
+    // While the layer is being resized the image is stretched, then redrawn in full once resizing has paused
+    private Timer fullRedraw = new Timer(150, e -> redraw());
+
+    // Told about each sketch as it is drawn while the drawing is shared with other users, otherwise null
+    private StrokeListener strokeListener;
+
+    // Called once the first frame has been displayed, used to time how long the program takes to start
+    private Runnable firstFrame;
+
+    // Draws full redraws and thumbnails on other threads when set, otherwise redraws are drawn straight away
+    private RenderExecutor renderExecutor;
+
+    /* The redraw waiting for or running on the executor, and the number of redraws requested so a finished redraw can
+       tell whether it has been replaced. The image is stale from when a redraw is requested, or a stretched copy is
+       shown in its place, until it is finished, while it does not show the current sketches and settings, so no pixels
+       are kept for undo in that time. */
+    private Future<?> pendingRender;
+    private long renderRequests;
+    private boolean stale = false;
+
+    /* The number of sketches other users in a shared session have started but not finished. Their shapes are on the
+       image but not yet in the history, so a finished redraw would wipe them and is not swapped in until they are. */
+    private int remoteStrokes;
+
+    /* A small copy of the drawing kept while the image is released, stretched as a quick low detail pass when the
+       drawing is shown again, and the listener told when it changes so it can be shown elsewhere. */
+    private BufferedImage thumbnail;
+    private Future<?> pendingThumbnail;
+    private Consumer<BufferedImage> thumbnailListener;
+
     // Stores the current brush stroke style
     private int brushWidth = 3;
     private Color brushColour = Color.RED;
@@ -34,23 +87,35 @@ public class DrawLayer extends JPanel {
     // Flag to control whether to draw a line or remove others
     private boolean erase = false;
 
-    // Mouse coordinates
-    private int currentX, currentY, oldX, oldY;
+    // Mouse coordinates in canvas coordinates
+    private double currentX, currentY, oldX, oldY;
+
+    /* Holds brush strokes to enable undo/redo operations. The history is never changed, each action replaces it with
+       a new version, so other threads can read the version they were given while the user keeps drawing. */
+    private volatile History history = History.EMPTY;
 
-    // Hold brush strokes to enable undo/redo operations
-    private Stack<Sketch> undoStack = new Stack<>();
-    private Stack<Sketch> redoStack = new Stack<>();
+    /* Holds the pixels each sketch changed so undo and redo only touch the area of the sketch. The memory it may use
+       can be set with the doilies.undoMemory system property, in bytes. */
+    private DeltaHistory deltas = new DeltaHistory(Long.getLong("doilies.undoMemory", 64L * 1024 * 1024));
 
-    /* Object to store the lines drawn while the mouse is dragged along with: brush colour, brush width and the state
-    of the erase and reflect flags. */
-    private Sketch sketch;
+    // A tiled copy of the image taken when the current sketch started, used to record the pixels it changes
+    private SparseImage strokeStart;
+
+    /* The point and lines drawn since the mouse was pressed. Once the mouse is released these are saved in a sketch
+    along with: brush colour, brush width and the state of the erase and reflect flags. */
+    private Ellipse2D startPoint;
+    private List<Line2D> lines = new ArrayList<>();
 
     /**
      * Constructor to instantiate the drawing layer and attach listeners to act on users mouse input.
+     * @param settings the number of sectors and symmetry to draw with, usually the editor
+     * @param backgroundLayer the background to display behind the drawing
      */
-    DrawLayer(Editor editor) {
-        // Store a reference to the editor object which holds the JFrame
-        this.editor = editor;
+    DrawLayer(CanvasSettings settings, BackgroundLayer backgroundLayer) {
+        // Store a reference to the settings, which the editor changes from its menus
+        this.settings = settings;
+        this.backgroundLayer = backgroundLayer;
+        fullRedraw.setRepeats(false);
 
         // Handles mouse pressed and released events
         addMouseListener(new MouseAdapter() {
@@ -58,44 +123,74 @@ public class DrawLayer extends JPanel {
             private boolean drawPoint = true;
 
             /**
-             * Store the current coordinates, start a new sketch and clear the redo stack
+             * Store the current coordinates and start a new sketch
              * @param e mouse event
              */
             @Override
             public void mousePressed(MouseEvent e) {
                 // Fetch the mouse coordinates
-                oldX = e.getX();
-                oldY = e.getY();
-                // Create a new sketch passing it the current settings
-                sketch = new Sketch(brushColour, brushWidth, reflect, erase);
-                // Once a new sketch has started clear the redo stack to avoid concurrency issues
-                redoStack.clear();
+                oldX = toCanvasX(e.getX());
+                oldY = toCanvasY(e.getY());
+                // Start collecting the lines of a new sketch
+                startPoint = null;
+                lines = new ArrayList<>();
+
+                // Bring the tiled copy up to date so its dirty bits will show only the tiles this sketch changes
+                if (g2 != null) {
+                    snapshot.sync(image);
+                    strokeStart = snapshot.copy();
+                }
 
                 // If the graphics context isn't empty and this is the first event for the current sketch
                 if (g2 != null && drawPoint) {
-                    /* Create a new point at the current mouse position, correct the coordinates to center on the mouse
-                     * and set the diameter to 1.3 times the brush length as this gives a good size balance. */
-                    double diameter = brushWidth * 1.3;
-                    Ellipse2D point = new Ellipse2D.Double(oldX-(diameter/2), oldY-(diameter/2),
-                            diameter, diameter);
-                    // Add the point to the sketch object
-                    sketch.setStartPoint(point);
+                    // Create a new point at the current mouse position
+                    Ellipse2D point = DoilyRenderer.createStartPoint(oldX, oldY, brushWidth);
+                    // Keep the point for the sketch
+                    startPoint = point;
                     // Draw the point (respecting reflection and number of sectors)
                     drawShape(point);
+                    // Tell a shared session a new sketch has started
+                    if (strokeListener != null) {
+                        strokeListener.strokeStarted(oldX, oldY, brushColour, brushWidth, reflect, erase);
+                    }
                     // Set the flag so another point will not be drawn until the mouse has been released
                     drawPoint = false;
                 }
             }
 
             /**
-             * Push the current sketch to the undo stack as the mouse has been released and set the
-             * drawPoint flag to true.
+             * Save the sketch and push it to the undo stack as the mouse has been released, record the pixels it
+             * changed and set the drawPoint flag to true.
              * @param e mouse event
              */
             @Override
             public void mouseReleased(MouseEvent e) {
-                undoStack.push(sketch);
+                // Nothing is drawn until the layer has been displayed, so there may be no sketch to save
+                if (startPoint != null) {
+                    Sketch sketch = new Sketch(brushColour, brushWidth, reflect, erase, startPoint, lines);
+
+                    // Once a new sketch has been drawn the redo stack is emptied, so forget the pixels kept for it
+                    for (Sketch undone : history.getRedoSketches()) {
+                        deltas.remove(undone);
+                    }
+                    history = history.push(sketch);
+
+                    /* In a shared session other users draw at the same time, so the changed tiles are not only this
+                       sketch's and undo is handled by redrawing instead. Nor are they kept while the image is
+                       stale, as they would put back the wrong pixels once the redraw has finished. */
+                    if (strokeListener != null) {
+                        strokeListener.strokeFinished();
+                    } else if (!stale) {
+                        deltas.record(sketch, strokeStart, snapshot.getDirtyTiles());
+                    }
+                }
+                strokeStart = null;
                 drawPoint = true;
+
+                // A redraw that finished while the sketch was drawn was not used, so ask for one with the sketch
+                if (stale && pendingRender == null && remoteStrokes == 0) {
+                    redraw();
+                }
             }
         });
 
@@ -104,8 +199,8 @@ public class DrawLayer extends JPanel {
             @Override
             public void mouseDragged(MouseEvent e) {
                 // Get the new coordinates for the new mouse position
-                currentX = e.getX();
-                currentY = e.getY();
+                currentX = toCanvasX(e.getX());
+                currentY = toCanvasY(e.getY());
 
                 // If the graphics context is not empty draw the line
                 if (g2 != null) {
@@ -113,10 +208,13 @@ public class DrawLayer extends JPanel {
                     Line2D line = new Line2D.Double(oldX, oldY, currentX, currentY);
 
                     // Add the drawn line to the sketch array list
-                    sketch.addLine(line);
+                    lines.add(line);
 
                     // Draw the lines on the image
                     drawShape(line);
+                    if (strokeListener != null && startPoint != null) {
+                        strokeListener.lineDrawn(currentX, currentY);
+                    }
 
                     /* Update the old coordinates to the new - this allows smooth line drawing by having multiple lines
                     make up a sketch. */
@@ -128,14 +226,48 @@ public class DrawLayer extends JPanel {
     }
 
     /**
-     * Invert the reflection flag
+     * @param x a horizontal mouse position
+     * @return the position as a fraction of the canvas width
      */
-    void toggleReflection() { reflect = !reflect; }
+    private double toCanvasX(int x) {
+        return (double) (x - offsetX) / side;
+    }
 
     /**
-     * Invert the erase flag
+     * @param y a vertical mouse position
+     * @return the position as a fraction of the canvas height
      */
-    void toggleErase() { erase = !erase; }
+    private double toCanvasY(int y) {
+        return (double) (y - offsetY) / side;
+    }
+
+    /**
+     * @param reflect whether new sketches are reflected within each sector
+     */
+    void setReflection(boolean reflect) {
+        this.reflect = reflect;
+    }
+
+    /**
+     * @return true if new sketches are reflected within each sector
+     */
+    boolean isReflecting() {
+        return reflect;
+    }
+
+    /**
+     * @param erase whether new sketches clear the drawing instead of painting
+     */
+    void setErasing(boolean erase) {
+        this.erase = erase;
+    }
+
+    /**
+     * @return true if new sketches clear the drawing instead of painting
+     */
+    boolean isErasing() {
+        return erase;
+    }
 
     /**
      * @param colour to set the brush colour
@@ -166,180 +298,583 @@ public class DrawLayer extends JPanel {
     }
 
     /**
-     * @return the drawn image - which is used to save to the gallery
+     * Brings the tiled copy of the image up to date and copies it, which only copies references to its tiles. While the
+     * image is stale, or has not been drawn yet, the sketches are drawn into a new image instead so the copy never
+     * holds a stretched placeholder.
+     * @return a copy of the drawn image - which is used to save to the gallery
      */
-    BufferedImage getImage() { return image; }
+    SparseImage getSnapshot() {
+        if (image == null || stale) {
+            int pixels = image != null ? image.getWidth() : DoilyRenderer.CANVAS_SIZE;
+            BufferedImage current = new BufferedImage(pixels, pixels, BufferedImage.TYPE_INT_ARGB);
+            DoilyRenderer.render(history.getSketches(), settings.getSymmetry(), settings.getNumberSectors(), null,
+                    current);
+            return SparseImage.of(current);
+        }
+
+        snapshot.sync(image);
+        return snapshot.copy();
+    }
 
     /**
-     * Draws a point or line, rotating it through every sector and reflecting it in each sector depending on the flags.
+     * Draws a point or line, repeating it through the current symmetry and reflecting it depending on the flags.
      * It also sets the brush colour, size and switches between clearing or drawing depending on the erase flag.
      * @param shape The shape object to be drawn.
      */
     private void drawShape(Shape shape) {
-        /* Initialise reflectedLine to null to avoid compiler errors if reflect isn't true as it is used
-           in separate if statements. */
-        Shape reflectedShape = null;
-
-        if (reflect) {
-            /* Use a transformation to move the line to the y axis, flip it horizontally and then move it back to it's
-            original position. */
-            AffineTransform reflectLine = new AffineTransform();
-            reflectLine.translate(400, 0);
-            reflectLine.scale(-1, 1);
-            reflectLine.translate(-400, 0);
-
-            // Apply the transformation to our line and store it
-            reflectedShape = reflectLine.createTransformedShape(shape);
+        drawShape(shape, brushColour, brushWidth, reflect, erase);
+    }
+
+    /**
+     * Draws a point or line of a sketch being drawn by another user in a shared session, using their brush settings
+     * and the current symmetry.
+     * @param shape the shape object to be drawn
+     * @param colour the brush colour
+     * @param width the brush width
+     * @param reflect whether to reflect the shape
+     * @param erase whether to clear the shape instead of painting it
+     */
+    void drawShape(Shape shape, Color colour, int width, boolean reflect, boolean erase) {
+        // Nothing can be drawn until the layer has been displayed, the sketch is drawn by the first full redraw
+        if (g2 == null) {
+            return;
         }
 
-        /* Loop through each sector and draw the line(s) by counting up by the angle between each sector.
-           Use doubles to avoid rounding errors for odd numbers of sectors. */
-        for (double i = 0; i <= 360; i = i + ((double) 360 / editor.getNumberSectors())) {
-
-            // Use a transformation to rotate the line through each sector about the center point
-            AffineTransform rotate =
-                    AffineTransform.getRotateInstance(
-                            Math.toRadians(i), 400, 400);
-
-            // Set the brush width
-            g2.setStroke(new BasicStroke(brushWidth));
-
-            /* If the erase flag is true set the composite to clear the drawing
-               If not set the brush colour and set the composite to draw. */
-            if (erase) {
-                g2.setComposite(AlphaComposite.Clear);
-            } else {
-                g2.setComposite(AlphaComposite.Src);
-                g2.setPaint(brushColour);
-            }
+        List<AffineTransform> transforms = settings.getSymmetry().getTransforms(settings.getNumberSectors(), reflect);
+        Rectangle area = DoilyRenderer.drawShape(g2, shape, transforms, colour, width, erase);
+        snapshot.markDirty(area);
+        refreshArea(area);
+    }
 
-            // Draw the original line rotated through each sector
-            if (shape instanceof Ellipse2D) {
-                g2.fill(rotate.createTransformedShape(shape));
-            } else {
-                g2.draw(rotate.createTransformedShape(shape));
-            }
+    /**
+     * Notes that another user in a shared session has started a sketch, which is drawn with drawShape as it arrives
+     * and finished with addSketch.
+     */
+    void remoteStrokeStarted() {
+        remoteStrokes++;
+    }
 
-            // Draw the reflected line mirrored in each sector if reflection is toggled
-            if (reflect) {
-                if (shape instanceof Ellipse2D) {
-                    g2.fill(rotate.createTransformedShape(reflectedShape));
-                } else {
-                    g2.draw(rotate.createTransformedShape(reflectedShape));
-                }
-            }
+    /**
+     * Adds a sketch finished by another user in a shared session to the undo stack. It has already been drawn.
+     * @param sketch the finished sketch
+     */
+    void addSketch(Sketch sketch) {
+        history = history.push(sketch);
+        remoteStrokes = Math.max(0, remoteStrokes - 1);
+        if (image == null) {
+            requestThumbnail();
+        } else if (stale && pendingRender == null && strokeStart == null && remoteStrokes == 0) {
+            // A redraw that finished while other users were drawing was not used, so ask for one with their sketches
+            redraw();
         }
+    }
 
-        // Refresh the draw area
-        repaint();
+    /**
+     * Sets the listener told about each sketch as it is drawn, used to share the drawing with other users.
+     * @param listener the listener, or null to stop sharing
+     */
+    void setStrokeListener(StrokeListener listener) {
+        strokeListener = listener;
+
+        // Sketches left unfinished by a session that has ended will never be finished
+        remoteStrokes = 0;
+        if (stale && pendingRender == null && strokeStart == null) {
+            redraw();
+        }
+        deltas.clear();
+    }
+
+    /**
+     * Blends only the changed area into the frame and refreshes just that part of the screen.
+     * @param area the area of the image that changed, in pixels
+     */
+    private void refreshArea(Rectangle area) {
+        area.translate(imageX, imageY);
+        compositor.invalidate(area);
+        repaint((int) Math.floor(area.x / scale), (int) Math.floor(area.y / scale),
+                (int) Math.ceil(area.width / scale) + 2, (int) Math.ceil(area.height / scale) + 2);
     }
 
     /**
-     * Pushes the top of the undo stack to the redo stack and redraws all previous sketches.
+     * Pushes the top of the undo stack to the redo stack and puts back the pixels it changed. If those pixels were not
+     * kept all previous sketches are redrawn instead.
      */
     void undo() {
-        redoStack.push(undoStack.pop());
-        redraw();
+        Sketch undone = history.peekUndo();
+        history = history.undo();
+
+        Rectangle area = swap(undone);
+        if (area != null) {
+            refreshArea(area);
+        } else {
+            redraw();
+        }
+    }
+
+    /**
+     * Swaps the pixels kept for a sketch with those in the image.
+     * @param sketch the sketch being undone or redone
+     * @return the area that changed in pixels, or null if the sketch must be redrawn instead
+     */
+    private Rectangle swap(Sketch sketch) {
+        // A stale image does not match the kept pixels, so they are dropped and everything is redrawn
+        if (stale || image == null) {
+            deltas.remove(sketch);
+            return null;
+        }
+        return deltas.swap(sketch, image, snapshot);
     }
 
     /**
      * @return true if there are any sketches in the undo stack.
      */
     Boolean canUndo() {
-        return undoStack.size() > 0;
+        return history.canUndo();
     }
 
     /**
-     * Pushes the top of the redo stack to the undo stack and redraws all previous sketches. It is not strictly
-     * necessary to redraw all sketches when redoing but this leads to much neater code to reuse the redraw method.
+     * Pushes the top of the redo stack to the undo stack and puts back the pixels it drew. If those pixels were not
+     * kept all previous sketches are redrawn instead.
      */
     void redo() {
-        undoStack.push(redoStack.pop());
-        redraw();
+        Sketch redone = history.peekRedo();
+        history = history.redo();
+
+        Rectangle area = swap(redone);
+        if (area != null) {
+            refreshArea(area);
+        } else {
+            redraw();
+        }
     }
 
     /**
      * @return true if there are any sketches in the redo stack.
      */
     Boolean canRedo() {
-        return redoStack.size() > 0;
+        return history.canRedo();
     }
 
     /**
-     * When an undo or redo action has been triggered this saves the state of all settings,
-     * redraws all sketches in the undo stack and then sets the old brush settings back.
+     * Redraws all sketches in the undo stack, each with the brush settings saved in it. When a render executor has
+     * been set they are drawn on it and the image is replaced once they are finished, otherwise they are drawn
+     * straight away.
      */
     void redraw() {
-        // Save the current brush colour so this can be set back after the redraw
-        // We use getRGB as we want to ensure our saved colour holds the value not reference
-        Color saveColour = new Color(brushColour.getRGB());
-        // Use primitives to ensure the value is stored
-        int saveBrushWidth = brushWidth;
-        boolean saveReflect = reflect;
-        boolean saveErase = erase;
+        // Nothing can be drawn until the layer has been displayed and the image created
+        if (g2 == null) {
+            return;
+        }
+
+        if (renderExecutor != null) {
+            requestRender();
+            return;
+        }
+        drawAll();
+    }
+
+    /**
+     * Clears the image and draws every sketch in the undo stack into it straight away.
+     */
+    private void drawAll() {
+        stale = false;
 
         // Clear the background by filling it with a clear rectangle
-        g2.setComposite(AlphaComposite.Clear);
-        g2.fillRect(0, 0, getWidth(), getHeight());
+        clearImage();
 
         // Loop while there are still sketches to be redrawn
-        for (Sketch sketch : undoStack) {
-            // Set all brush settings for that sketch and fetch the start point
-            brushColour = sketch.getColour();
-            brushWidth = sketch.getWidth();
-            reflect = sketch.getReflect();
-            erase = sketch.getErase();
-            Ellipse2D startPoint = sketch.getStartPoint();
-
-            // Draw the start point before the lines
-            drawShape(startPoint);
-
-            // Loop through each line in the sketch and draw them on the image
-            for (Line2D line : sketch.getLines()) {
-                drawShape(line);
+        for (Sketch sketch : history.getSketches()) {
+            DoilyRenderer.drawSketch(g2, sketch, settings.getSymmetry(), settings.getNumberSectors(), null);
+        }
+
+        // Refresh the image
+        repaint();
+    }
+
+    /**
+     * Draws the current sketches into a new image on the render executor, replacing any redraw that has not finished.
+     * The old image is shown, and can still be drawn on, until the new one is ready.
+     */
+    private void requestRender() {
+        cancelRender();
+        stale = true;
+
+        // Take everything the redraw needs now, as the sketches and settings may change while it runs
+        long request = renderRequests;
+        History rendering = history;
+        Symmetry symmetry = settings.getSymmetry();
+        int numberSectors = settings.getNumberSectors();
+        int pixels = image.getWidth();
+
+        pendingRender = renderExecutor.submit(RenderExecutor.Priority.VISIBLE, () -> {
+            BufferedImage rendered;
+            try {
+                rendered = new BufferedImage(pixels, pixels, BufferedImage.TYPE_INT_ARGB);
+                // A redraw replaced while it runs is interrupted, so it stops instead of drawing what is thrown away
+                if (!DoilyRenderer.render(rendering.getSketches(), symmetry, numberSectors, null, rendered,
+                        () -> Thread.currentThread().isInterrupted())) {
+                    return;
+                }
+            } catch (RuntimeException | OutOfMemoryError e) {
+                // The executor would keep the failure to itself and leave the image stale for good
+                SwingUtilities.invokeLater(() -> renderFailed(request, e));
+                return;
             }
+            SwingUtilities.invokeLater(() -> installRender(request, rendered, rendering, symmetry, numberSectors));
+        });
+    }
+
+    /**
+     * Reports a redraw that failed on the render executor and, unless it has been replaced, draws the sketches into
+     * the existing image instead, which needs no new image. While a sketch is being drawn the image is left stale, and
+     * another redraw is requested once the sketch is finished.
+     * @param request the number of the request the redraw was made for
+     * @param failure the reason the redraw failed
+     */
+    private void renderFailed(long request, Throwable failure) {
+        reportFailure(failure);
+        if (request != renderRequests || image == null) {
+            return;
         }
+        pendingRender = null;
+        if (strokeStart != null || remoteStrokes > 0) {
+            return;
+        }
+        drawAll();
+    }
 
-        // Set all the brush settings back to their original values
-        brushColour = saveColour;
-        brushWidth = saveBrushWidth;
-        reflect = saveReflect;
-        erase = saveErase;
+    /**
+     * Passes a failure from the render executor to the uncaught exception handler of the event dispatch thread, so it
+     * is reported in the same way as a failure while drawing there.
+     * @param failure the failure
+     */
+    private static void reportFailure(Throwable failure) {
+        Thread thread = Thread.currentThread();
+        thread.getUncaughtExceptionHandler().uncaughtException(thread, failure);
+    }
 
-        // Refresh the image
+    /**
+     * Replaces the image with a finished redraw if it still matches the sketches and settings, otherwise requests
+     * another.
+     * @param request the number of the request the redraw was made for
+     * @param rendered the redrawn image
+     * @param rendering the history that was drawn
+     * @param symmetry the symmetry it was drawn with
+     * @param numberSectors the number of sectors it was drawn with
+     */
+    private void installRender(long request, BufferedImage rendered, History rendering, Symmetry symmetry,
+                               int numberSectors) {
+        // A newer redraw has been requested, or the image has been released or resized and will be redrawn anyway
+        if (request != renderRequests || image == null || image.getWidth() != rendered.getWidth()) {
+            return;
+        }
+        pendingRender = null;
+
+        /* Replacing the image now would lose the sketch being drawn, or the unfinished sketches of other users, so a
+           redraw is requested once they have finished */
+        if (strokeStart != null || remoteStrokes > 0) {
+            return;
+        }
+
+        if (rendering != history || symmetry != settings.getSymmetry()
+                || numberSectors != settings.getNumberSectors()) {
+            requestRender();
+            return;
+        }
+
+        g2.dispose();
+        image = rendered;
+        g2 = createGraphics(image);
+        stale = false;
+        snapshot.markAllDirty();
+        compositor.invalidateAll();
         repaint();
     }
 
+    /**
+     * Stops any redraw from being used, whether or not it has started. One that is running is interrupted so it stops
+     * at the next sketch.
+     */
+    private void cancelRender() {
+        if (pendingRender != null) {
+            pendingRender.cancel(true);
+            pendingRender = null;
+        }
+        renderRequests++;
+        stale = false;
+    }
+
+    /**
+     * Draws a thumbnail of the current sketches on the render executor and tells the thumbnail listener once it is
+     * finished, used while the image is released.
+     */
+    private void requestThumbnail() {
+        if (renderExecutor == null || thumbnailListener == null) {
+            return;
+        }
+        if (pendingThumbnail != null) {
+            pendingThumbnail.cancel(true);
+        }
+
+        History rendering = history;
+        Symmetry symmetry = settings.getSymmetry();
+        int numberSectors = settings.getNumberSectors();
+        pendingThumbnail = renderExecutor.submit(RenderExecutor.Priority.BACKGROUND, () -> {
+            BufferedImage rendered = new BufferedImage(THUMBNAIL_SIZE, THUMBNAIL_SIZE, BufferedImage.TYPE_INT_ARGB);
+            try {
+                if (!DoilyRenderer.render(rendering.getSketches(), symmetry, numberSectors, null, rendered,
+                        () -> Thread.currentThread().isInterrupted())) {
+                    return;
+                }
+            } catch (RuntimeException | OutOfMemoryError e) {
+                // The tab keeps its previous thumbnail
+                SwingUtilities.invokeLater(() -> reportFailure(e));
+                return;
+            }
+            SwingUtilities.invokeLater(() -> {
+                // Once the image is shown again the thumbnail is no longer needed
+                if (image == null && rendering == history) {
+                    thumbnail = rendered;
+                    thumbnailListener.accept(rendered);
+                }
+            });
+        });
+    }
+
+    /**
+     * Sets the executor to draw full redraws and thumbnails on, which is shared by every open document.
+     * @param renderExecutor the executor, or null to draw redraws straight away on the calling thread
+     */
+    void setRenderExecutor(RenderExecutor renderExecutor) {
+        this.renderExecutor = renderExecutor;
+    }
+
+    /**
+     * Sets the listener told about each new thumbnail, on the event dispatch thread.
+     * @param listener the listener
+     */
+    void setThumbnailListener(Consumer<BufferedImage> listener) {
+        thumbnailListener = listener;
+    }
+
+    /**
+     * Frees the image and everything kept to display it, used when the drawing is no longer shown, keeping only the
+     * sketches and a small thumbnail. The image is drawn again when the layer is next painted.
+     * @return the thumbnail of the drawing, or null if it has never been drawn
+     */
+    BufferedImage release() {
+        fullRedraw.stop();
+        cancelRender();
+
+        if (image != null) {
+            thumbnail = new BufferedImage(THUMBNAIL_SIZE, THUMBNAIL_SIZE, BufferedImage.TYPE_INT_ARGB);
+            Graphics2D shrink = thumbnail.createGraphics();
+            shrink.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_BILINEAR);
+            shrink.drawImage(image, 0, 0, THUMBNAIL_SIZE, THUMBNAIL_SIZE, null);
+            shrink.dispose();
+            g2.dispose();
+        }
+
+        image = null;
+        g2 = null;
+        snapshot = null;
+        strokeStart = null;
+        deltas.clear();
+        compositor.release();
+        backgroundLayer.release();
+        return thumbnail;
+    }
+
+    /**
+     * Redraws all sketches once the symmetry or the number of sectors has changed. The pixels kept for undo no longer
+     * match the drawing so they are discarded.
+     */
+    void symmetryChanged() {
+        deltas.clear();
+        redraw();
+    }
+
+    /**
+     * @return the current version of the history. It will not change, so it can be read from any thread while the
+     * user carries on drawing.
+     */
+    History getHistory() {
+        return history;
+    }
+
+    /**
+     * @return the sketches in the undo stack, oldest first - which is used to save the session
+     */
+    List<Sketch> getSketches() {
+        return history.getSketches();
+    }
+
+    /**
+     * Replaces the drawing with a saved session, emptying both stacks and redrawing the loaded sketches.
+     * @param sketches the sketches to load, oldest first
+     */
+    void loadSketches(List<Sketch> sketches) {
+        history = History.of(sketches);
+        deltas.clear();
+
+        // Any sketches other users had not finished are wiped by the redraw
+        remoteStrokes = 0;
+        if (image == null) {
+            requestThumbnail();
+        } else {
+            redraw();
+        }
+    }
+
     /**
      * Fill the layer in with alpha chanel (clear) and empty all stacks
      */
     void clear() {
-        g2.setComposite(AlphaComposite.Clear);
-        g2.fillRect(0, 0, getWidth(), getHeight());
-        undoStack.clear();
-        redoStack.clear();
+        // The cleared image is up to date, so any redraw in progress is no longer needed
+        cancelRender();
+        clearImage();
+        history = History.EMPTY;
+        deltas.clear();
         repaint();
     }
 
     /**
-     * If an image hasn't been created, make a new one and get it's graphics object.
-     * Refresh the image.
+     * Fill the image with a clear rectangle.
+     */
+    private void clearImage() {
+        g2.setComposite(AlphaComposite.Clear);
+        // The graphics object is scaled to canvas coordinates so the unit square covers the whole image
+        g2.fill(new Rectangle2D.Double(0, 0, 1, 1));
+        snapshot.markAllDirty();
+        compositor.invalidateAll();
+    }
+
+    /**
+     * Creates a new square image and gets it's graphics object, scaled so sketches can be drawn in canvas coordinates.
+     * @param pixels the width and height of the image
+     */
+    private void createCanvas(int pixels) {
+        image = new BufferedImage(pixels, pixels, BufferedImage.TYPE_INT_ARGB);
+        snapshot = new SparseImage(pixels, pixels);
+
+        // Pixels kept for undo were recorded at the old size
+        deltas.clear();
+
+        g2 = createGraphics(image);
+    }
+
+    /**
+     * @param image a square image
+     * @return a graphics object for the image, scaled so sketches can be drawn in canvas coordinates
+     */
+    private static Graphics2D createGraphics(BufferedImage image) {
+        Graphics2D g2 = (Graphics2D) image.getGraphics();
+
+        // Use antialiasing on the drawn image to smooth it
+        g2.setRenderingHint(RenderingHints.KEY_ANTIALIASING, RenderingHints.VALUE_ANTIALIAS_ON);
+        g2.scale(image.getWidth(), image.getHeight());
+        return g2;
+    }
+
+    /**
+     * If an image hasn't been created or the layer has changed size, make a new one to fit.
+     * Refresh the image. The frame covers the whole layer so the panel background does not need painting first.
      * @param g graphics object
      */
     @Override
     protected void paintComponent(Graphics g) {
-        super.paintComponent(g);
+        // Fit the largest square in the layer and center it
+        side = Math.min(getWidth(), getHeight());
+        offsetX = (getWidth() - side) / 2;
+        offsetY = (getHeight() - side) / 2;
 
-        // Create the image
-        if (image == null) {
-            image = new BufferedImage(getWidth(), getHeight(), BufferedImage.TYPE_INT_ARGB);
+        /* Use one image pixel per screen pixel. On HiDPI screens the default transform scales each unit to more than
+           one pixel, so the image is made larger to stay sharp. */
+        GraphicsConfiguration config = getGraphicsConfiguration();
+        scale = config != null ? config.getDefaultTransform().getScaleX() : 1;
+        int pixels = Math.max(1, (int) Math.round(side * scale));
 
-            g2 = (Graphics2D) image.getGraphics();
+        if (image == null) {
+            createCanvas(pixels);
+            // Draw any sketches that were loaded before the layer was displayed, or since it was released
+            if (history.canUndo()) {
+                // Stretch the thumbnail kept when the image was released to show something while it is redrawn
+                if (thumbnail != null) {
+                    stretch(thumbnail);
+                }
+                redraw();
+            }
+            thumbnail = null;
+        } else if (image.getWidth() != pixels) {
+            /* Redrawing every sketch on each resize event would make resizing slow, so stretch the old image as a
+               quick low detail pass and redraw it in full once the user has stopped resizing. */
+            BufferedImage old = image;
+            createCanvas(pixels);
+            stretch(old);
+            fullRedraw.restart();
+        }
 
-            // Use antialiasing on the drawn image to smooth it
-            g2.setRenderingHint(RenderingHints.KEY_ANTIALIASING, RenderingHints.VALUE_ANTIALIAS_ON);
+        // Blend any changes over the background and display the finished frame
+        int width = Math.max(1, (int) Math.round(getWidth() * scale));
+        int height = Math.max(1, (int) Math.round(getHeight() * scale));
+        imageX = (int) Math.round(offsetX * scale);
+        imageY = (int) Math.round(offsetY * scale);
+        compositor.paint(g, this, backgroundLayer.getImage(config, width, height, scale), image, imageX, imageY);
+
+        // Run the listener after this paint has finished so the time includes displaying the frame
+        if (firstFrame != null) {
+            SwingUtilities.invokeLater(firstFrame);
+            firstFrame = null;
         }
+    }
+
+    /**
+     * Fills the image with a stretched copy of another, a quick low detail pass until it is redrawn in full. The image
+     * is stale until then, so sketches drawn over the stretched pixels do not keep them for undo.
+     * @param source the image to stretch
+     */
+    private void stretch(BufferedImage source) {
+        Graphics2D stretch = image.createGraphics();
+        stretch.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_BILINEAR);
+        stretch.drawImage(source, 0, 0, image.getWidth(), image.getHeight(), null);
+        stretch.dispose();
+        stale = true;
+        snapshot.markAllDirty();
+        compositor.invalidateAll();
+    }
 
-        g.drawImage(image, 0, 0, null);
+    /**
+     * Sets a listener to run once the first frame has been displayed. It must be set on the event dispatch thread
+     * before the first paint, such as straight after the editor is created.
+     * @param listener the code to run after the first frame
+     */
+    void onFirstFrame(Runnable listener) {
+        firstFrame = listener;
+    }
+
+    /**
+     * Receives the parts of each sketch as the user draws them. All methods are called on the event dispatch thread.
+     */
+    interface StrokeListener {
+        /**
+         * @param x the horizontal position of the start point in canvas coordinates
+         * @param y the vertical position of the start point in canvas coordinates
+         * @param colour the brush colour
+         * @param width the brush width
+         * @param reflect whether the sketch is reflected
+         * @param erase whether the sketch clears other sketches
+         */
+        void strokeStarted(double x, double y, Color colour, int width, boolean reflect, boolean erase);
+
+        /**
+         * @param x the horizontal position the newest line ends at, continuing from the end of the previous line
+         * @param y the vertical position the newest line ends at
+         */
+        void lineDrawn(double x, double y);
+
+        /**
+         * Called once the mouse has been released and the sketch pushed to the undo stack.
+         */
+        void strokeFinished();
     }
-}
\ No newline at end of file
+}
@@ -2,69 +2,88 @@ import javax.swing.*;
 import javax.swing.event.MenuEvent;
 import javax.swing.event.MenuListener;
 import java.awt.*;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
 
 /**
- * The main class for holding the menus, the drawing area for the doily and the gallery.
+ * The main class for holding the menus, the tabs of open doilies and the gallery.
  */
 class Editor {
+    // The most lines a generated doily may have in total, about a hundred megabytes of sketches
+    private static final long MAX_GENERATED_LINES = 2_000_000;
+
     // The window that holds the GUI for the application
     private JFrame window;
 
-    // The front layer on which the user draws their design
+    // The open documents in the order of their tabs, and the document being shown
+    private List<Document> documents = new ArrayList<>();
+    private Document document;
+
+    // The tabs holding the draw layer of each open document
+    private JTabbedPane tabs;
+
+    // Draws the full redraws and thumbnails of every document, the one being shown first
+    private RenderExecutor renderExecutor = new RenderExecutor(Runtime.getRuntime().availableProcessors());
+
+    // Counts new documents to give each a different name
+    private int untitledCount = 0;
+
+    // The layer on which the user draws their design in the document being shown, displayed over its background layer
     private DrawLayer drawLayer;
 
-    // The background layer which holds the black backdrop and sector lines
+    // The background layer of the document being shown which holds the black backdrop and sector lines
     private BackgroundLayer backgroundLayer;
 
-    // The gallery pane where the saved images are displayed
+    // The gallery pane where the saved images are displayed, created the first time it is needed
     private Gallery gallery;
 
-    // Stores the number of sectors the draw area is split into - 12 is the default
-    private Integer numberSectors = 12;
-
-    // The editors layout which holds the canvas layered pane (combination of the draw and background layers)
+    // The editors layout which holds the canvas (the tabs of draw layers, which display the background behind them)
     // and the gallery panel
     private CardLayout cardLayout;
     private JPanel cards;
 
-    // Store the menu bars so their settings are maintained
+    // The connection to a shared drawing session and the server when hosting one, both null when drawing alone
+    private CollabClient collabClient;
+    private CollabServer collabServer;
+
+    // The document shared in the session, null when drawing alone
+    private Document collabDocument;
+
+    // Set while connecting to a session on a worker thread, so another connection cannot be started meanwhile
+    private boolean connecting;
+
+    // The canvas menu items showing the settings of the document being shown, updated when another tab is chosen
+    private JSpinner sectors;
+    private JRadioButtonMenuItem[] symmetryItems = new JRadioButtonMenuItem[Symmetry.values().length];
+    private JCheckBoxMenuItem eraser;
+    private JCheckBoxMenuItem sectorLines;
+    private JCheckBoxMenuItem reflection;
+
+    // Store the menu bars so their settings are maintained, the gallery menu bar is created with the gallery
     private JMenuBar canvasMenuBar;
     private JMenuBar galleryMenuBar;
 
     /**
-     * Constructor for the main editor which sets up it's properties, adds the drawing and background panels as well
-     * as the gallery.
+     * Constructor for the main editor which sets up it's properties and opens an empty document. The gallery is not
+     * shown at start up so it is only built once it is first used. This must be called on the event dispatch thread.
      */
     Editor() {
         // Instantiate the JFrame to hold the GUI and ensure the program terminates when the window is closed
         window = new JFrame("Digital Doilies");
         window.setDefaultCloseOperation(WindowConstants.EXIT_ON_CLOSE);
 
-        // A layered panel to hold the draw layer and background layer
-        JLayeredPane canvas = new JLayeredPane();
-
-        drawLayer = new DrawLayer(this);
-        backgroundLayer = new BackgroundLayer(this);
-
-        gallery = new Gallery(this);
-
-        // Make the draw layer transparent so the background can be seen through it
-        drawLayer.setOpaque(false);
-
-        // Set the bounds of each layer to make sure they are displayed
-        drawLayer.setBounds(0, 0, 800, 800);
-        backgroundLayer.setBounds(0, 0, 800, 800);
-
-        // Add the draw layer to the canvas to be displayed in front of the background
-        canvas.add(drawLayer, JLayeredPane.PALETTE_LAYER);
-        canvas.add(backgroundLayer, JLayeredPane.DEFAULT_LAYER);
+        /* Each document's draw layer blends the drawing over the background itself and displays them as one opaque
+           frame, so each tab holds a single panel instead of stacked transparent panels. */
+        tabs = new JTabbedPane();
+        tabs.addChangeListener(e -> documentSelected());
 
         // Create a panel using the card layout to hold the canvas and gallery, making it easy to switch between them.
         cardLayout = new CardLayout();
         cards = new JPanel(cardLayout);
 
-        cards.add(canvas, "Canvas");
-        cards.add(gallery, "Gallery");
+        cards.add(tabs, "Canvas");
 
         // Show the canvas by default for the user to draw
         cardLayout.show(cards, "Canvas");
@@ -72,20 +91,122 @@ class Editor {
 
         // Set the menu bar by calling the canvasMenu method
         canvasMenuBar = canvasMenu();
-        galleryMenuBar = galleryMenu();
         window.setJMenuBar(canvasMenuBar);
 
-        window.setSize(800, 844);
-        window.setResizable(false);
+        // Start with one empty document
+        addDocument(new Document(nextUntitledName(), renderExecutor, this::updateTab));
+
+        window.setSize(800, 868);
         window.setVisible(true);
     }
 
     /**
-     * @return the number of sectors the drawing should be repeated in, this is used to calculate the degree of
-     * rotation in the draw layer and the angles between the sector lines in the background layer
+     * @return a name for a new document which has not been saved
+     */
+    private String nextUntitledName() {
+        untitledCount++;
+        return "Untitled " + untitledCount;
+    }
+
+    /**
+     * Opens a document in a new tab and shows it.
+     * @param opened the document to open
+     */
+    private void addDocument(Document opened) {
+        documents.add(opened);
+        tabs.addTab(opened.getName(), opened.getIcon(), opened.getDrawLayer());
+        tabs.setSelectedIndex(documents.size() - 1);
+    }
+
+    /**
+     * Closes the document being shown, leaving a shared session first if it is the shared document. The last
+     * document cannot be closed.
+     */
+    private void closeDocument() {
+        if (documents.size() < 2) {
+            return;
+        }
+        if (document == collabDocument) {
+            stopCollaboration();
+        }
+
+        // Remove the document first so the tab shown next does not try to release it
+        Document closed = document;
+        int index = documents.indexOf(closed);
+        documents.remove(index);
+        tabs.remove(index);
+        closed.getDrawLayer().release();
+    }
+
+    /**
+     * Shows the document in the selected tab, releasing the images of the document that was shown and updating the
+     * canvas menu to match the new one's settings.
+     */
+    private void documentSelected() {
+        int index = tabs.getSelectedIndex();
+        Document selected = index < 0 ? null : documents.get(index);
+        if (selected == document) {
+            return;
+        }
+
+        // Only documents that are still open are released, a closed one is released as it is closed
+        if (document != null && documents.contains(document)) {
+            document.deactivate();
+            updateTab(document);
+        }
+
+        document = selected;
+        if (document == null) {
+            return;
+        }
+        drawLayer = document.getDrawLayer();
+        backgroundLayer = document.getBackgroundLayer();
+        updateCanvasMenu();
+    }
+
+    /**
+     * Shows a document's current name and thumbnail on its tab.
+     * @param changed the document whose tab to update
+     */
+    private void updateTab(Document changed) {
+        int index = documents.indexOf(changed);
+        if (index >= 0) {
+            tabs.setTitleAt(index, changed.getName());
+            tabs.setIconAt(index, changed.getIcon());
+        }
+    }
+
+    /**
+     * Sets the canvas and brush menu items to the settings of the document being shown.
+     */
+    private void updateCanvasMenu() {
+        // The listeners only act when the value differs from the document's, so setting them here changes nothing
+        sectors.setValue(document.getNumberSectors());
+        symmetryItems[document.getSymmetry().ordinal()].setSelected(true);
+        eraser.setSelected(drawLayer.isErasing());
+        reflection.setSelected(drawLayer.isReflecting());
+        sectorLines.setSelected(backgroundLayer.isShowingSectorLines());
+    }
+
+    /**
+     * Returns the gallery, building it along with its menu bar the first time it is needed.
+     * @return the gallery pane
+     */
+    private Gallery getGallery() {
+        if (gallery == null) {
+            gallery = new Gallery(this);
+            galleryMenuBar = galleryMenu();
+            cards.add(gallery, "Gallery");
+        }
+        return gallery;
+    }
+
+    /**
+     * Sets a listener to run once the first frame of the canvas has been displayed, used to time start up.
+     * @param listener the code to run after the first frame
      */
-    Integer getNumberSectors() {
-        return numberSectors;
+    void onFirstFrame(Runnable listener) {
+        drawLayer.onFirstFrame(listener);
     }
 
     /**
@@ -95,6 +216,98 @@ class Editor {
         return window;
     }
 
+    /**
+     * Displays an error dialogue to the user when a file cannot be read or written, or a background task fails.
+     * @param title the title of the dialogue
+     * @param e the exception or error holding the reason for the failure
+     */
+    private void showError(String title, Throwable e) {
+        // Unexpected failures often have no message, so fall back to the name of the failure
+        String message = e.getMessage() != null ? e.getMessage() : e.toString();
+        JOptionPane.showMessageDialog(window, message, title, JOptionPane.ERROR_MESSAGE);
+    }
+
+    /**
+     * Connects the draw layer of the document being shown to a shared drawing session. Connecting can take seconds if
+     * the host does not answer, so it is done on a worker thread and the client is started on the event dispatch
+     * thread once connected. If the connection fails the session is left, which also stops the server when hosting.
+     * @param host the name or address of the server
+     * @param port the port of the server
+     * @param shareDrawing whether to send the current drawing to the session, used when hosting
+     * @param title the window title to show once connected
+     * @param errorTitle the title of the dialogue shown if the session cannot be joined
+     */
+    private void startCollaboration(String host, int port, boolean shareDrawing, String title, String errorTitle) {
+        // The user may change tabs while connecting, so the document is chosen now
+        Document target = document;
+        DrawLayer targetLayer = drawLayer;
+        connecting = true;
+
+        new Thread(() -> {
+            CollabClient client;
+            try {
+                client = CollabClient.connect(host, port, targetLayer, e -> {
+                    // The client has already closed itself
+                    collabClient = null;
+                    stopCollaboration();
+                    showError("Disconnected from Session", e);
+                });
+            } catch (IOException ex) {
+                SwingUtilities.invokeLater(() -> {
+                    connecting = false;
+                    stopCollaboration();
+                    showError(errorTitle, ex);
+                });
+                return;
+            }
+
+            SwingUtilities.invokeLater(() -> {
+                connecting = false;
+                // The document may have been closed while connecting
+                if (!documents.contains(target)) {
+                    client.close();
+                    stopCollaboration();
+                    return;
+                }
+                try {
+                    client.start(shareDrawing);
+                } catch (IllegalArgumentException ex) {
+                    client.close();
+                    stopCollaboration();
+                    showError(errorTitle, ex);
+                    return;
+                }
+                collabClient = client;
+                collabDocument = target;
+                window.setTitle(title);
+            });
+        }, "Collaboration connect").start();
+    }
+
+    /**
+     * @return true if the document being shown is shared in a session, so undo and redo only affect the user's own
+     * sketches and the drawing cannot be cleared or replaced
+     */
+    private boolean isShared() {
+        return collabClient != null && document == collabDocument;
+    }
+
+    /**
+     * Leaves the shared drawing session, and stops the server if this editor is hosting it. The drawing is kept.
+     */
+    private void stopCollaboration() {
+        window.setTitle("Digital Doilies");
+        collabDocument = null;
+        if (collabClient != null) {
+            collabClient.close();
+            collabClient = null;
+        }
+        if (collabServer != null) {
+            collabServer.close();
+            collabServer = null;
+        }
+    }
+
     /**
      * Creates the menu bar displayed at the top of the application editor holding the tools and options, as well as
      * holding listeners to trigger actions.
@@ -108,37 +321,246 @@ class Editor {
         JMenu fileMenu = new JMenu("File");
         menuBar.add(fileMenu);
 
-        // Pass the current draw layer image to the gallery to be copied and stored
+        // Pass a copy of the current draw layer image to the gallery to be stored
         JMenuItem saveToGallery = new JMenuItem("Save to Gallery");
-        saveToGallery.addActionListener(e -> gallery.saveImage(drawLayer.getImage()));
+        saveToGallery.addActionListener(e -> getGallery().saveImage(drawLayer.getSnapshot()));
 
         // Display the gallery panel by switching cards and set the gallery menu bar
         JMenuItem viewGallery = new JMenuItem("View Gallery");
         viewGallery.addActionListener(e -> {
+            getGallery();
             cardLayout.show(cards, "Gallery");
             window.setJMenuBar(galleryMenuBar);
         });
 
+        // Write the sketches in the undo stack to a session file chosen by the user
+        JMenuItem saveSession = new JMenuItem("Save Session");
+        saveSession.addActionListener(e -> {
+            JFileChooser chooser = new JFileChooser();
+            if (chooser.showSaveDialog(window) == JFileChooser.APPROVE_OPTION) {
+                File file = chooser.getSelectedFile();
+                if (!file.getName().endsWith(SessionFile.EXTENSION)) {
+                    file = new File(file.getPath() + SessionFile.EXTENSION);
+                }
+                try {
+                    SessionFile.write(file, drawLayer.getSketches());
+                } catch (IOException ex) {
+                    showError("Cannot Save Session", ex);
+                }
+            }
+        });
+
+        // Open the sketches from a session file chosen by the user in a new tab, named after the file
+        JMenuItem openSession = new JMenuItem("Open Session");
+        openSession.addActionListener(e -> {
+            JFileChooser chooser = new JFileChooser();
+            if (chooser.showOpenDialog(window) == JFileChooser.APPROVE_OPTION) {
+                File file = chooser.getSelectedFile();
+                try {
+                    List<Sketch> sketches = SessionFile.read(file);
+                    Document opened = new Document(file.getName(), renderExecutor, this::updateTab);
+                    opened.getDrawLayer().loadSketches(sketches);
+                    addDocument(opened);
+                } catch (IOException ex) {
+                    showError("Cannot Open Session", ex);
+                }
+            }
+        });
+
+        // Open an empty document in a new tab
+        JMenuItem newDocument = new JMenuItem("New Doily");
+        newDocument.addActionListener(e ->
+                addDocument(new Document(nextUntitledName(), renderExecutor, this::updateTab)));
+
+        // Close the document being shown, its sketches are lost unless they have been saved
+        JMenuItem closeDocument = new JMenuItem("Close Doily");
+        closeDocument.addActionListener(e -> closeDocument());
+
+        // The last document cannot be closed
+        fileMenu.addMenuListener(new MenuListener() {
+            @Override
+            public void menuSelected(MenuEvent e) {
+                closeDocument.setEnabled(documents.size() > 1);
+            }
+
+            @Override
+            public void menuDeselected(MenuEvent e) {
+            }
+
+            @Override
+            public void menuCanceled(MenuEvent e) {
+            }
+        });
+
+        fileMenu.add(newDocument);
+        fileMenu.add(closeDocument);
+        fileMenu.addSeparator();
         fileMenu.add(saveToGallery);
         fileMenu.add(viewGallery);
+        fileMenu.addSeparator();
+        fileMenu.add(saveSession);
+        fileMenu.add(openSession);
+        fileMenu.addSeparator();
+
+        /* Ask for the animation settings and where to save it, then replay the drawing on a background thread so the
+           editor can still be used while the frames are encoded. */
+        JMenuItem exportTimeLapse = new JMenuItem("Export Time-lapse");
+        exportTimeLapse.addActionListener(e -> {
+            JSpinner frames = new JSpinner(new SpinnerNumberModel(100, 2, 2000, 10));
+            // GIF delays are kept in hundredths of a second, so the delay goes up in steps of 10 milliseconds
+            JSpinner frameDelay = new JSpinner(new SpinnerNumberModel(50, 10, 5000, 10));
+            JCheckBox rotate = new JCheckBox("Rotate view");
+            JPanel options = new JPanel(new GridLayout(0, 1));
+            options.add(new JLabel("Number of Frames:"));
+            options.add(frames);
+            options.add(new JLabel("Frame Delay (ms, GIF only):"));
+            options.add(frameDelay);
+            options.add(rotate);
+
+            int option = JOptionPane.showOptionDialog(window, options, "Export Time-lapse",
+                    JOptionPane.OK_CANCEL_OPTION, JOptionPane.PLAIN_MESSAGE, null, null, null);
+            if (option != JOptionPane.OK_OPTION) {
+                return;
+            }
+
+            // A name ending in .gif saves an animated GIF, anything else is used as a directory of PNGs
+            JFileChooser chooser = new JFileChooser();
+            chooser.setSelectedFile(new File("doily.gif"));
+            if (chooser.showSaveDialog(window) != JFileChooser.APPROVE_OPTION) {
+                return;
+            }
+
+            // Take the current version of the history, the user can carry on drawing while it is exported
+            History history = drawLayer.getHistory();
+            int exportSectors = document.getNumberSectors();
+            Symmetry exportSymmetry = document.getSymmetry();
+            int exportFrames = (Integer) frames.getValue();
+            int exportDelay = (Integer) frameDelay.getValue();
+            boolean exportRotate = rotate.isSelected();
+            File target = chooser.getSelectedFile();
+
+            new Thread(() -> {
+                try {
+                    AnimationExporter exporter = new AnimationExporter(history.getSketches(), exportSectors);
+                    exporter.setSymmetry(exportSymmetry);
+                    exporter.setFrames(exportFrames);
+                    exporter.setFrameDelay(exportDelay);
+                    exporter.setRotate(exportRotate);
+                    exporter.export(target);
+                } catch (IOException | RuntimeException | OutOfMemoryError ex) {
+                    // The thread ends here, so anything that goes wrong is shown rather than lost
+                    SwingUtilities.invokeLater(() -> showError("Cannot Export Time-lapse", ex));
+                } catch (InterruptedException ex) {
+                    Thread.currentThread().interrupt();
+                }
+            }, "Time-lapse export").start();
+        });
+
+        fileMenu.add(exportTimeLapse);
 
         // EDIT Menu
         JMenu editMenu = new JMenu("Edit");
         menuBar.add(editMenu);
 
-        // Call the undo method on the draw layer to remove the last sketch
+        // Call the undo method on the draw layer to remove the last sketch, or only the user's own in a shared session
         JMenuItem undo = new JMenuItem("Undo");
-        undo.addActionListener(e -> drawLayer.undo());
+        undo.addActionListener(e -> {
+            if (isShared()) {
+                collabClient.undo();
+            } else {
+                drawLayer.undo();
+            }
+        });
 
         // Call the redo method on the draw layer to redo the previously undone sketch
         JMenuItem redo = new JMenuItem("Redo");
-        redo.addActionListener(e -> drawLayer.redo());
+        redo.addActionListener(e -> {
+            if (isShared()) {
+                collabClient.redo();
+            } else {
+                drawLayer.redo();
+            }
+        });
+
+        // Call the clear method on the draw layer to remove all drawn lines
+        JMenuItem clear = new JMenuItem("Clear Drawing");
+        clear.addActionListener(e -> drawLayer.clear());
+
+        /* Open a new document filled with generated sketches, which is used to try the editor with very large drawings.
+           The tab is opened straight away and filled once the sketches have been generated on a background thread, so
+           the current drawing is never replaced. */
+        JMenuItem generate = new JMenuItem("Generate Doily...");
+        generate.addActionListener(e -> {
+            JSpinner strokes = new JSpinner(new SpinnerNumberModel(1000, 1, 1000000, 1000));
+            JSpinner points = new JSpinner(new SpinnerNumberModel(20, 1, 1000, 5));
+            JSpinner seed = new JSpinner(new SpinnerNumberModel(1, 0, Integer.MAX_VALUE, 1));
+            JPanel options = new JPanel(new GridLayout(0, 1));
+            options.add(new JLabel("Number of Sketches:"));
+            options.add(strokes);
+            options.add(new JLabel("Points per Sketch:"));
+            options.add(points);
+            options.add(new JLabel("Seed:"));
+            options.add(seed);
+
+            int option = JOptionPane.showOptionDialog(window, options, "Generate Doily",
+                    JOptionPane.OK_CANCEL_OPTION, JOptionPane.PLAIN_MESSAGE, null, null, null);
+            if (option != JOptionPane.OK_OPTION) {
+                return;
+            }
+
+            // Every line is kept in the history, so very large products would run out of memory
+            long lines = (long) (Integer) strokes.getValue() * (Integer) points.getValue();
+            if (lines > MAX_GENERATED_LINES) {
+                JOptionPane.showMessageDialog(window,
+                        "A generated doily can have at most " + MAX_GENERATED_LINES + " lines in total, "
+                                + "reduce the number of sketches or points.",
+                        "Cannot Generate Doily",
+                        JOptionPane.WARNING_MESSAGE);
+                return;
+            }
+
+            DoilyGenerator generator = new DoilyGenerator((Integer) seed.getValue());
+            generator.setStrokes((Integer) strokes.getValue());
+            generator.setPoints((Integer) points.getValue());
+            Document target = new Document("Generated " + seed.getValue(), renderExecutor, this::updateTab);
+            addDocument(target);
+            new Thread(() -> {
+                try {
+                    List<Sketch> sketches = generator.generate();
+                    SwingUtilities.invokeLater(() -> {
+                        // The tab may have been closed, or shared with other users who would not see the sketches
+                        if (!documents.contains(target)) {
+                            return;
+                        }
+                        if (collabClient != null && target == collabDocument) {
+                            JOptionPane.showMessageDialog(window,
+                                    "The generated sketches were not added because the drawing is now shared.",
+                                    "Cannot Generate Doily",
+                                    JOptionPane.WARNING_MESSAGE);
+                            return;
+                        }
+                        target.getDrawLayer().loadSketches(sketches);
+                    });
+                } catch (RuntimeException | OutOfMemoryError ex) {
+                    // The thread ends here, so anything that goes wrong is shown rather than lost
+                    SwingUtilities.invokeLater(() -> showError("Cannot Generate Doily", ex));
+                }
+            }, "Doily generator").start();
+        });
 
         /* Every time the edit menu is clicked use the canUndo and canRedo methods to set the enabled
            status of the undo and redo buttons. */
         editMenu.addMenuListener(new MenuListener() {
             @Override
             public void menuSelected(MenuEvent e) {
+                if (isShared()) {
+                    undo.setEnabled(collabClient.canUndo());
+                    redo.setEnabled(collabClient.canRedo());
+                    // Other users' sketches cannot be cleared
+                    clear.setEnabled(false);
+                    return;
+                }
+
                 if (drawLayer.canUndo()) {
                     undo.setEnabled(true);
                 } else {
@@ -150,6 +572,7 @@ class Editor {
                 } else {
                     redo.setEnabled(false);
                 }
+                clear.setEnabled(true);
             }
 
             @Override
@@ -161,14 +584,11 @@ class Editor {
             }
         });
 
-        // Call the clear method on the draw layer to remove all drawn lines
-        JMenuItem clear = new JMenuItem("Clear Drawing");
-        clear.addActionListener(e -> drawLayer.clear());
-
         editMenu.add(undo);
         editMenu.add(redo);
         editMenu.addSeparator();
         editMenu.add(clear);
+        editMenu.add(generate);
 
         // BRUSH Menu
         JMenu brushMenu = new JMenu("Brush");
@@ -206,9 +626,9 @@ class Editor {
         brushMenu.add(sizeMenu);
         brushMenu.addSeparator();
 
-        // Toggle erasing by calling the toggleErase method when ticked
-        JCheckBoxMenuItem eraser = new JCheckBoxMenuItem("Eraser");
-        eraser.addItemListener(e -> drawLayer.toggleErase());
+        // Turn erasing on or off in the draw layer to match the tick
+        eraser = new JCheckBoxMenuItem("Eraser");
+        eraser.addItemListener(e -> drawLayer.setErasing(eraser.isSelected()));
         brushMenu.add(eraser);
 
         // CANVAS Menu
@@ -217,37 +637,126 @@ class Editor {
 
         // Spinner to change the number of sectors for the doily. The default is 12 with a max of 36 and minimum of 2.
         JLabel sectorLabel = new JLabel("Number of Sectors:");
-        JSpinner sectors = new JSpinner(new SpinnerNumberModel(12, 2, 40, 1));
+        sectors = new JSpinner(new SpinnerNumberModel(12, 2, Symmetry.MAX_SECTORS, 1));
         // When the value is changed redraw the background and draw layer.
         sectors.addChangeListener(e -> {
-            numberSectors = ((Integer) sectors.getValue());
-            backgroundLayer.drawBackground();
-            drawLayer.redraw();
+            int value = (Integer) sectors.getValue();
+            if (value != document.getNumberSectors()) {
+                document.setNumberSectors(value);
+                drawLayer.symmetryChanged();
+            }
         });
 
         canvasMenu.add(sectorLabel);
         canvasMenu.add(sectors);
 
+        // Sub menu to choose how the drawing is repeated, only one mode can be selected at a time
+        JMenu symmetryMenu = new JMenu("Symmetry");
+        ButtonGroup symmetryGroup = new ButtonGroup();
+        for (Symmetry mode : Symmetry.values()) {
+            JRadioButtonMenuItem item = new JRadioButtonMenuItem(mode.getLabel(), mode == Symmetry.ROTATION);
+            item.addActionListener(e -> {
+                if (mode != document.getSymmetry()) {
+                    document.setSymmetry(mode);
+                    drawLayer.symmetryChanged();
+                }
+            });
+            symmetryItems[mode.ordinal()] = item;
+            symmetryGroup.add(item);
+            symmetryMenu.add(item);
+        }
+        canvasMenu.add(symmetryMenu);
+
         canvasMenu.addSeparator();
 
-        // When toggled set the flag in the background layer using toggleShowSectorLines and then redraw the background
-        JCheckBoxMenuItem sectorLines = new JCheckBoxMenuItem("Show Sector Lines");
+        // When toggled set the flag in the background layer to match and then repaint the canvas
+        sectorLines = new JCheckBoxMenuItem("Show Sector Lines");
         // Selected by default
         sectorLines.setSelected(true);
         sectorLines.addItemListener(e -> {
-            backgroundLayer.toggleShowSectorLines();
-            backgroundLayer.drawBackground();
+            backgroundLayer.setShowSectorLines(sectorLines.isSelected());
+            drawLayer.repaint();
         });
 
-        // When toggled call toggleReflection to set the reflection state in the draw layer
-        JCheckBoxMenuItem reflection = new JCheckBoxMenuItem("Toggle Reflection");
+        // When toggled set the reflection state in the draw layer to match
+        reflection = new JCheckBoxMenuItem("Toggle Reflection");
         // Selected by default
         reflection.setState(true);
-        reflection.addItemListener(e -> drawLayer.toggleReflection());
+        reflection.addItemListener(e -> drawLayer.setReflection(reflection.isSelected()));
 
         canvasMenu.add(sectorLines);
         canvasMenu.add(reflection);
 
+        // COLLABORATE Menu
+        JMenu collaborateMenu = new JMenu("Collaborate");
+        menuBar.add(collaborateMenu);
+
+        /* Start a server other machines on the network can join and connect to it, sharing the current drawing.
+           Port 0 picks any free port. */
+        JMenuItem hostSession = new JMenuItem("Host Session");
+        hostSession.addActionListener(e -> {
+            String port = JOptionPane.showInputDialog(window, "Port:", CollabProtocol.DEFAULT_PORT);
+            if (port == null) {
+                return;
+            }
+            try {
+                collabServer = new CollabServer(null, Integer.parseInt(port.trim()));
+                collabServer.start();
+                startCollaboration("localhost", collabServer.getPort(), true,
+                        "Digital Doilies - Hosting on port " + collabServer.getPort(), "Cannot Host Session");
+            } catch (IOException | NumberFormatException ex) {
+                stopCollaboration();
+                showError("Cannot Host Session", ex);
+            }
+        });
+
+        // Join a session hosted on another machine, replacing the drawing with the shared one
+        JMenuItem joinSession = new JMenuItem("Join Session");
+        joinSession.addActionListener(e -> {
+            String address = JOptionPane.showInputDialog(window, "Host (name:port):",
+                    "localhost:" + CollabProtocol.DEFAULT_PORT);
+            if (address == null) {
+                return;
+            }
+            try {
+                int colon = address.lastIndexOf(':');
+                String host = colon < 0 ? address.trim() : address.substring(0, colon).trim();
+                int port = colon < 0 ? CollabProtocol.DEFAULT_PORT
+                        : Integer.parseInt(address.substring(colon + 1).trim());
+                startCollaboration(host, port, false, "Digital Doilies - Joined " + host + ":" + port,
+                        "Cannot Join Session");
+            } catch (NumberFormatException ex) {
+                showError("Cannot Join Session", ex);
+            }
+        });
+
+        // Disconnect from the session, keeping the drawing
+        JMenuItem leaveSession = new JMenuItem("Leave Session");
+        leaveSession.addActionListener(e -> stopCollaboration());
+
+        // Every time the collaborate menu is clicked only allow joining or leaving depending on the connection
+        collaborateMenu.addMenuListener(new MenuListener() {
+            @Override
+            public void menuSelected(MenuEvent e) {
+                hostSession.setEnabled(collabClient == null && !connecting);
+                joinSession.setEnabled(collabClient == null && !connecting);
+                leaveSession.setEnabled(collabClient != null);
+            }
+
+            @Override
+            public void menuDeselected(MenuEvent e) {
+            }
+
+            @Override
+            public void menuCanceled(MenuEvent e) {
+            }
+        });
+
+        collaborateMenu.add(hostSession);
+        collaborateMenu.add(joinSession);
+        collaborateMenu.addSeparator();
+        collaborateMenu.add(leaveSession);
+
         return menuBar;
     }
 
@@ -269,6 +778,18 @@ class Editor {
 
         menuBar.add(back);
 
+        // Ask for a directory and import every image in it as a thumbnail, they appear as they are decoded
+        JButton importImages = new JButton("Import Images");
+        importImages.addActionListener(e -> {
+            JFileChooser chooser = new JFileChooser();
+            chooser.setFileSelectionMode(JFileChooser.DIRECTORIES_ONLY);
+            if (chooser.showOpenDialog(window) == JFileChooser.APPROVE_OPTION) {
+                gallery.importImages(chooser.getSelectedFile());
+            }
+        });
+
+        menuBar.add(importImages);
+
         return menuBar;
     }
 }
\ No newline at end of file
@@ -1,145 +1,153 @@
+import javax.imageio.ImageIO;
 import javax.swing.*;
 import java.awt.*;
+import java.awt.event.ComponentAdapter;
+import java.awt.event.ComponentEvent;
 import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Path;
 import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.Map;
 
 /**
- * Holds the users saved drawings, allowing them to view and delete them
+ * Holds the users saved drawings and imported images, allowing them to view and delete them. Four images are shown
+ * per page and pages are added as images are, so there is no limit on how many can be kept.
  */
 class Gallery extends JPanel {
+    // The number of images shown on each page
+    private static final int PAGE_SIZE = 4;
+
+    // The number of scaled icons kept, enough for the current page and the pages either side of it
+    private static final int MAX_ICONS = PAGE_SIZE * 3;
+
     // Store a reference to the main editor - this is used to get the main window as a parent for a dialogue box
     private Editor editor;
 
-    // The layout to allow us to switch between the three pages
-    private CardLayout cardLayout;
+    // Array to store the labels that show the drawings on the current page as their icons
+    private JLabel[] labels = new JLabel[PAGE_SIZE];
 
-    // Array to store the labels that have the saved drawings as their icons
-    private JLabel[] labels = new JLabel[12];
+    /* Array list to store all the images taken from the draw layer when the user saves, and the thumbnails of imported
+       images. Drawings are stored as tiles so only their painted areas use memory, and imported thumbnails are kept
+       encoded as PNGs. */
+    private ArrayList<Entry> images = new ArrayList<>();
 
-    // Array list to store all the buffered images taken from the draw layer when the user saves
-    private ArrayList<BufferedImage> images = new ArrayList<>();
+    /* The icons already scaled to the current size, so moving between pages or adding an image does not decode and
+       scale every image on the page again. Only the most recently shown are kept, and all are dropped when the size
+       changes. */
+    private Map<Entry, Icon> icons = new LinkedHashMap<Entry, Icon>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<Entry, Icon> eldest) {
+            return size() > MAX_ICONS;
+        }
+    };
+    private int iconSize;
 
-    /* Array to store the button used to delete each drawing - defined here to allow setting
+    /* Array to store the button used to delete each drawing on the current page - defined here to allow setting
        enabled status outside the constructor */
-    private JButton[] delete = new JButton[12];
+    private JButton[] delete = new JButton[PAGE_SIZE];
+
+    // The forwards and backwards navigation buttons and the page number between them
+    private JButton previousPage;
+    private JButton nextPage;
+    private JLabel pageNumber;
 
-    // Represents the current page displayed so the status of the next and previous buttons can be updated
+    // Shows the progress of an import
+    private JLabel status;
+
+    // Represents the current page displayed, counting from 1, so the next and previous buttons can be updated
     private int currentPage = 1;
 
+    // The import in progress, or null if there is none
+    private GalleryImporter importer;
+
     /**
-     * Instantiate all panels to hold the drawings, adding the delete buttons and page controls.
+     * Instantiate the panels to hold the drawings on a page, adding the delete buttons and page controls.
      * @param editor to allow access to the JFrame container
      */
     Gallery(Editor editor) {
         this.editor = editor;
-        // An array of panels which will hold each drawing and its corresponding delete button
-        JPanel[] panels = new JPanel[12];
-
-        // Instantiate each page setting 4 images per page using a grid layout
-        JPanel pageOne = new JPanel(new GridLayout(2, 2));
-        JPanel pageTwo = new JPanel(new GridLayout(2, 2));
-        JPanel pageThree = new JPanel(new GridLayout(2, 2));
 
         // Set the gallery's overall layout so we can add the image panels along with the controls
         this.setLayout(new BorderLayout());
 
-        // Use a card layout to switch between pages
-        cardLayout = new CardLayout();
-        JPanel pages = new JPanel(cardLayout);
-
-        this.add(pages, BorderLayout.CENTER);
-
-        // Add the three pages to the card layout
-        pages.add(pageOne);
-        pages.add(pageTwo);
-        pages.add(pageThree);
+        // Show 4 images per page using a grid layout, the same panels show whichever page is selected
+        JPanel page = new JPanel(new GridLayout(2, 2));
+        this.add(page, BorderLayout.CENTER);
 
         // A panel to store the bottom control panel holding the next page and prev page buttons
         JPanel controls = new JPanel();
 
         // Instantiate the forwards and backwards navigation buttons
-        JButton previousPage = new JButton("Prev Page");
-        JButton nextPage = new JButton("Next Page");
-
-        // Initially make the previous button disabled as we will start on the first page
-        previousPage.setEnabled(false);
+        previousPage = new JButton("Prev Page");
+        nextPage = new JButton("Next Page");
+        pageNumber = new JLabel();
+        status = new JLabel();
 
         // Add an action listener to move to the previous page and update the status of the buttons
         previousPage.addActionListener(e -> {
-            // Decrement the page number and enable the next button
             prevPage();
-            nextPage.setEnabled(true);
-            // Check if we are on the first page, if so disable the previous button
-            if (currentPage == 1) {
-                previousPage.setEnabled(false);
-            } else {
-                previousPage.setEnabled(true);
-            }
-            // Display the previous card
-            cardLayout.previous(pages);
+            refresh();
         });
 
         // Add an action listener to move to the next page and update the status of the buttons
         nextPage.addActionListener(e -> {
-            // Increment the page number and enable the previous button
             nextPage();
-            previousPage.setEnabled(true);
-            // Check if we are on the last page, if so disable the next button
-            if (currentPage == 3) {
-                nextPage.setEnabled(false);
-            } else {
-                nextPage.setEnabled(true);
-            }
-            // Display the next card
-            cardLayout.next(pages);
+            refresh();
         });
 
         controls.add(previousPage);
+        controls.add(pageNumber);
         controls.add(nextPage);
+        controls.add(status);
 
         // Add the control panel to the bottom of the gallery panel
         this.add(controls, BorderLayout.SOUTH);
 
-        // Show the first page by default
-        cardLayout.show(pages, "1");
-
         // Create the panels to hold the images
-        for (int i = 0; i < 12; i++) {
+        for (int i = 0; i < PAGE_SIZE; i++) {
             /* Set a border layout for each panel and make their backgrounds black to make it easier to see the
                drawings */
-            panels[i] = new JPanel(new BorderLayout());
-            panels[i].setBackground(Color.BLACK);
+            JPanel panel = new JPanel(new BorderLayout());
+            panel.setBackground(Color.BLACK);
 
             // Instantiate each label, set the alignment to the center and add them to the panel
             labels[i] = new JLabel("", JLabel.CENTER);
-            panels[i].add(labels[i], BorderLayout.CENTER);
+            panel.add(labels[i], BorderLayout.CENTER);
 
             // Instantiate each delete button initially setting all disabled
             delete[i] = new JButton("Delete");
             delete[i].setEnabled(false);
             // Declare a final variable from the counter for use in the lambda expression
             final int position = i;
-            // Remove the corresponding image and refresh the gallery
+            // Remove the corresponding image and refresh the gallery, moving back a page if this one is now empty
             delete[i].addActionListener(e -> {
-                images.remove(position);
+                icons.remove(images.remove((currentPage - 1) * PAGE_SIZE + position));
+                currentPage = Math.min(currentPage, getPageCount());
                 refresh();
             });
 
             // Add the delete button to the panel
-            panels[i].add(delete[i], BorderLayout.SOUTH);
+            panel.add(delete[i], BorderLayout.SOUTH);
 
             // Draw a border around each panel
-            panels[i].setBorder(BorderFactory.createLineBorder(Color.WHITE));
+            panel.setBorder(BorderFactory.createLineBorder(Color.WHITE));
 
-            // Depending on the count add the panel to the correct page
-            if (i < 4) {
-                pageOne.add(panels[i]);
-            } else if (i < 8) {
-                pageTwo.add(panels[i]);
-            } else {
-                pageThree.add(panels[i]);
-            }
+            page.add(panel);
         }
+
+        // Rescale the images to fit whenever the gallery changes size, including when it is first shown
+        this.addComponentListener(new ComponentAdapter() {
+            @Override
+            public void componentResized(ComponentEvent e) {
+                refresh();
+            }
+        });
+
+        refresh();
     }
 
     /**
@@ -156,48 +164,143 @@ class Gallery extends JPanel {
         currentPage--;
     }
 
+    /**
+     * @return the number of pages needed to show every image, at least one
+     */
+    private int getPageCount() {
+        return Math.max(1, (images.size() + PAGE_SIZE - 1) / PAGE_SIZE);
+    }
+
     /**
      * Saves the drawing to the images array list
-     * @param source is the image containing the drawing to be saved to the gallery
+     * @param image is a copy of the drawing to be saved to the gallery
      */
-    void saveImage(BufferedImage source) {
-        // Copy the image
-        BufferedImage image = new BufferedImage(source.getWidth(), source.getHeight(), source.getType());
-        Graphics g = image.getGraphics();
-        g.drawImage(source, 0, 0, null);
-        g.dispose();
-
-        // Check if there are already 12 images stored
-        if (images.size() < 12) {
-            // Save the actual image so it can be rescaled
-            images.add(image);
-            // Move images to
-            refresh();
-        } else {
-            // Display a warning dialogue to the user
+    void saveImage(SparseImage image) {
+        // Save the actual image so it can be rescaled
+        images.add(new Entry(image, null, null));
+        // Move images to
+        refresh();
+    }
+
+    /**
+     * Imports every image in a directory in the background, adding each to the gallery as it is ready. Only one
+     * import runs at a time.
+     * @param directory the directory to import
+     */
+    void importImages(File directory) {
+        if (importer != null) {
             JOptionPane.showMessageDialog(editor.getWindow(),
-                    "You can only save 12 drawings at a time, please delete a drawing from the gallery.",
-                    "Cannot Save Drawing",
+                    "Please wait for the current import to finish.",
+                    "Cannot Import Images",
                     JOptionPane.WARNING_MESSAGE);
+            return;
+        }
+
+        status.setText("Importing...");
+        importer = new GalleryImporter(directory, this::addImported, this::importFinished);
+        importer.start();
+    }
+
+    /**
+     * Adds an imported thumbnail, only redrawing the page if the thumbnail appears on it.
+     * @param file the file the thumbnail was made from
+     * @param png the downscaled image encoded as a PNG
+     * @param imported the number of images imported so far
+     */
+    private void addImported(Path file, byte[] png, int imported) {
+        images.add(new Entry(null, file, png));
+        status.setText("Imported " + imported + "...");
+        if (images.size() > (currentPage - 1) * PAGE_SIZE && images.size() <= currentPage * PAGE_SIZE) {
+            refresh();
+        } else {
+            updateControls();
         }
     }
 
     /**
-     * Adds the actual images to each panel by setting the icon of each label
+     * Shows how many images were imported once the import has finished.
+     * @param imported the number of images imported
+     * @param failed the number of files which could not be read as images
+     */
+    private void importFinished(int imported, int failed) {
+        importer = null;
+        status.setText("Imported " + imported + (failed > 0 ? ", " + failed + " could not be read" : ""));
+    }
+
+    /**
+     * Adds the images on the current page to each panel by setting the icon of each label
      */
     private void refresh() {
-        for (int i = 0; i < 12; i++) {
+        // Subtract 10 from the height and width to make it easier to see the full drawing
+        int size = Math.max(1, labels[0].getHeight() - 10);
+        if (size != iconSize) {
+            icons.clear();
+            iconSize = size;
+        }
+
+        for (int i = 0; i < PAGE_SIZE; i++) {
+            int index = (currentPage - 1) * PAGE_SIZE + i;
             // If there is an image at that position set the icon of the corresponding label to it
-            if (i < images.size()) {
-                // Subtract 10 from the height and width to make it easier to see the full drawing
-                labels[i].setIcon(new ImageIcon(images.get(i).getScaledInstance(labels[i].getHeight() - 10,
-                        labels[i].getHeight() - 10, Image.SCALE_SMOOTH)));
+            if (index < images.size()) {
+                Entry entry = images.get(index);
+                labels[i].setIcon(icons.computeIfAbsent(entry, key -> new ImageIcon(
+                        key.toBufferedImage().getScaledInstance(size, size, Image.SCALE_SMOOTH))));
+                labels[i].setToolTipText(entry.source != null ? entry.source.getFileName().toString() : null);
                 delete[i].setEnabled(true);
             } else {
                 // If there is no image in that position set the icon to null and disable the delete button
                 labels[i].setIcon(null);
+                labels[i].setToolTipText(null);
                 delete[i].setEnabled(false);
             }
         }
+        updateControls();
+    }
+
+    /**
+     * Enables the page buttons only if there is a page to move to and shows the page number.
+     */
+    private void updateControls() {
+        previousPage.setEnabled(currentPage > 1);
+        nextPage.setEnabled(currentPage < getPageCount());
+        pageNumber.setText("Page " + currentPage + " of " + getPageCount());
+    }
+
+    /**
+     * A drawing saved from the editor, or the thumbnail of an imported image.
+     */
+    private static class Entry {
+        // The saved drawing, or null for an imported image
+        private final SparseImage drawing;
+
+        // The file an imported image came from and its thumbnail encoded as a PNG, both null for a saved drawing
+        private final Path source;
+        private final byte[] png;
+
+        /**
+         * @param drawing the saved drawing, or null for an imported image
+         * @param source the file the image was imported from, or null for a saved drawing
+         * @param png the imported thumbnail encoded as a PNG, or null for a saved drawing
+         */
+        Entry(SparseImage drawing, Path source, byte[] png) {
+            this.drawing = drawing;
+            this.source = source;
+            this.png = png;
+        }
+
+        /**
+         * @return the full image, decoded again on each call
+         */
+        BufferedImage toBufferedImage() {
+            if (drawing != null) {
+                return drawing.toBufferedImage();
+            }
+            try {
+                return ImageIO.read(new ByteArrayInputStream(png));
+            } catch (IOException e) {
+                // The PNG was encoded by the importer so it can always be read back from memory
+                throw new UncheckedIOException(e);
+            }
+        }
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,248 @@
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReadParam;
+import javax.imageio.ImageReader;
+import javax.imageio.stream.ImageInputStream;
+import javax.swing.*;
+import java.awt.*;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.DirectoryIteratorException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Iterator;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BiConsumer;
+
+/**
+ * Imports a directory of images into the gallery as thumbnails. The directory is read one entry at a time and each
+ * file is decoded and downscaled on a pool of worker threads. Only a few files may be in progress or waiting to be
+ * shown at once, so the scan waits for the gallery to catch up, and large images are subsampled while they are
+ * decoded. Each thumbnail is handed over encoded as a PNG, which is far smaller than its pixels for photographs, so
+ * memory use is a few full size images plus one compressed thumbnail per imported file, however large the directory
+ * is. Files which are not images are skipped.
+ */
+class GalleryImporter {
+
+    // The width and height of each thumbnail, images are scaled to fit and centered
+    static final int THUMBNAIL_SIZE = 192;
+
+    private final File directory;
+
+    // Called on the event dispatch thread with each file and its encoded thumbnail
+    private final ThumbnailListener onThumbnail;
+
+    // Called on the event dispatch thread with the number imported and the number that could not be read
+    private final BiConsumer<Integer, Integer> onFinished;
+
+    // The number of worker threads
+    private final int threads = Runtime.getRuntime().availableProcessors();
+
+    /* Each file being decoded, waiting for a worker or waiting to be shown holds a permit. Permits are only returned
+       once the gallery has shown the thumbnail, so the scan cannot get ahead of the workers or the gallery. */
+    private final Semaphore permits = new Semaphore(threads * 2);
+
+    private final AtomicInteger imported = new AtomicInteger();
+    private final AtomicInteger failed = new AtomicInteger();
+
+    /**
+     * @param directory the directory to import
+     * @param onThumbnail called on the event dispatch thread with each file and its encoded thumbnail
+     * @param onFinished called on the event dispatch thread with the number imported and the number that failed
+     */
+    GalleryImporter(File directory, ThumbnailListener onThumbnail, BiConsumer<Integer, Integer> onFinished) {
+        this.directory = directory;
+        this.onThumbnail = onThumbnail;
+        this.onFinished = onFinished;
+    }
+
+    /**
+     * Starts importing on a background thread.
+     */
+    void start() {
+        Thread scanner = new Thread(this::scan, "Gallery import");
+        scanner.setDaemon(true);
+        scanner.start();
+    }
+
+    /**
+     * Hands each file in the directory to the workers, waiting whenever too many are in progress, then reports the
+     * totals once every worker has finished.
+     */
+    private void scan() {
+        ExecutorService pool = Executors.newFixedThreadPool(threads, runnable -> {
+            Thread worker = new Thread(runnable, "Gallery import worker");
+            worker.setDaemon(true);
+            return worker;
+        });
+
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(directory.toPath())) {
+            for (Path file : files) {
+                if (!Files.isRegularFile(file)) {
+                    continue;
+                }
+                permits.acquire();
+                pool.execute(() -> importFile(file));
+            }
+        } catch (IOException | DirectoryIteratorException e) {
+            // The directory could not be read, report whatever was imported before the failure
+            failed.incrementAndGet();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            pool.shutdown();
+            try {
+                pool.awaitTermination(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+
+            /* Queued after every thumbnail, so it runs once they have all been shown. It is always queued, even if the
+               scan failed, or the gallery would refuse every later import. */
+            SwingUtilities.invokeLater(() -> onFinished.accept(imported.get(), failed.get()));
+        }
+    }
+
+    /**
+     * Decodes, downscales and encodes one file and passes the thumbnail to the gallery, releasing its permit once
+     * shown.
+     * @param file the file to import
+     */
+    private void importFile(Path file) {
+        // Set once the permit belongs to the thumbnail waiting to be shown
+        boolean handedOver = false;
+        try {
+            byte[] png;
+            try {
+                BufferedImage thumbnail = createThumbnail(file.toFile());
+                png = thumbnail != null ? encode(thumbnail) : null;
+            } catch (IOException | RuntimeException | OutOfMemoryError e) {
+                // Corrupt files can make the decoders throw unchecked exceptions, and huge ones run out of memory
+                png = null;
+            }
+
+            if (png == null) {
+                failed.incrementAndGet();
+                return;
+            }
+
+            int count = imported.incrementAndGet();
+            byte[] shown = png;
+            SwingUtilities.invokeLater(() -> {
+                try {
+                    onThumbnail.thumbnailReady(file, shown, count);
+                } finally {
+                    permits.release();
+                }
+            });
+            handedOver = true;
+        } finally {
+            // Whatever went wrong the permit is returned, otherwise the scan would wait for it for good
+            if (!handedOver) {
+                permits.release();
+            }
+        }
+    }
+
+    /**
+     * @param thumbnail a thumbnail
+     * @return the thumbnail encoded as a PNG
+     * @throws IOException if the thumbnail cannot be encoded
+     */
+    private static byte[] encode(BufferedImage thumbnail) throws IOException {
+        ByteArrayOutputStream png = new ByteArrayOutputStream();
+        ImageIO.write(thumbnail, "png", png);
+        return png.toByteArray();
+    }
+
+    /**
+     * @param file an image file
+     * @return a thumbnail of the image, or null if the file is not an image that can be read
+     * @throws IOException if the file cannot be read
+     */
+    static BufferedImage createThumbnail(File file) throws IOException {
+        try (ImageInputStream stream = ImageIO.createImageInputStream(file)) {
+            if (stream == null) {
+                return null;
+            }
+            Iterator<ImageReader> readers = ImageIO.getImageReaders(stream);
+            if (!readers.hasNext()) {
+                return null;
+            }
+
+            ImageReader reader = readers.next();
+            try {
+                reader.setInput(stream, true, true);
+                int longest = Math.max(reader.getWidth(0), reader.getHeight(0));
+
+                /* Skip rows and columns while decoding so large images are never held at full size. At least twice
+                   the thumbnail size is kept so the final scaling can smooth the result. */
+                ImageReadParam param = reader.getDefaultReadParam();
+                int step = Math.max(1, longest / (THUMBNAIL_SIZE * 2));
+                param.setSourceSubsampling(step, step, 0, 0);
+
+                return scale(reader.read(0, param));
+            } finally {
+                reader.dispose();
+            }
+        }
+    }
+
+    /**
+     * Scales an image to fit a thumbnail, halving it in steps so no detail is skipped, and centers it on a
+     * transparent square so the gallery panel's black background shows around it.
+     * @param image the decoded image
+     * @return the thumbnail
+     */
+    private static BufferedImage scale(BufferedImage image) {
+        int longest = Math.max(image.getWidth(), image.getHeight());
+        while (longest > THUMBNAIL_SIZE * 2) {
+            image = resize(image, Math.max(1, image.getWidth() / 2), Math.max(1, image.getHeight() / 2));
+            longest = Math.max(image.getWidth(), image.getHeight());
+        }
+
+        double ratio = (double) THUMBNAIL_SIZE / longest;
+        int width = Math.max(1, (int) Math.round(image.getWidth() * ratio));
+        int height = Math.max(1, (int) Math.round(image.getHeight() * ratio));
+
+        BufferedImage thumbnail = new BufferedImage(THUMBNAIL_SIZE, THUMBNAIL_SIZE, BufferedImage.TYPE_INT_ARGB);
+        Graphics2D g2 = thumbnail.createGraphics();
+        g2.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_BILINEAR);
+        g2.drawImage(image, (THUMBNAIL_SIZE - width) / 2, (THUMBNAIL_SIZE - height) / 2, width, height, null);
+        g2.dispose();
+        return thumbnail;
+    }
+
+    /**
+     * @param image the image to resize
+     * @param width the new width
+     * @param height the new height
+     * @return a resized copy of the image
+     */
+    private static BufferedImage resize(BufferedImage image, int width, int height) {
+        BufferedImage resized = new BufferedImage(width, height, BufferedImage.TYPE_INT_ARGB);
+        Graphics2D g2 = resized.createGraphics();
+        g2.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_BILINEAR);
+        g2.drawImage(image, 0, 0, width, height, null);
+        g2.dispose();
+        return resized;
+    }
+
+    /**
+     * Receives each imported thumbnail.
+     */
+    interface ThumbnailListener {
+        /**
+         * @param file the file the thumbnail was made from
+         * @param png the thumbnail encoded as a PNG
+         * @param imported the number of images imported so far
+         */
+        void thumbnailReady(Path file, byte[] png, int imported);
+    }
+}
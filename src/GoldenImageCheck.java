@@ -0,0 +1,455 @@
+import javax.imageio.ImageIO;
+import java.awt.*;
+import java.awt.event.MouseEvent;
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.util.List;
+
+/**
+ * Checks that drawing still produces the same images, and takes no longer and allocates no more than it should. A
+ * fixed set of generated histories is drawn across different sector counts, symmetries and mixes of reflected and
+ * eraser sketches, and each image is compared with a reference PNG stored in the golden directory. Each scenario has
+ * a time and allocation budget, so a change that alters the output or makes drawing slower fails the check. The batch
+ * renderer's image is also compared with the same history drawn on a draw layer, so the two cannot drift apart. Run
+ * with --update to replace the reference images after a deliberate change to how doilies look.
+ */
+class GoldenImageCheck implements CanvasSettings {
+
+    // The width and height of the drawing in each scenario, kept small so the reference images are too
+    private static final int SIZE = 128;
+
+    // The width and height of the drawing that is turned into a gallery thumbnail, large enough to be subsampled
+    private static final int THUMBNAIL_SOURCE_SIZE = DoilyRenderer.CANVAS_SIZE;
+
+    // The number of times each scenario is timed
+    private static final int TIMED_RUNS = 3;
+
+    // The ways a scenario's history is drawn
+    private enum Kind {
+        // Loaded into a draw layer and redrawn in full
+        DRAW,
+        // Loaded into a draw layer, then sketches are drawn with the mouse, undone and redone
+        UNDO,
+        // Loaded into a draw layer, then sketches are dragged off every edge of the canvas, undone and redone
+        OFF_CANVAS,
+        // Drawn by the renderer used for batch rendering and the render service, and by a draw layer to compare
+        BATCH,
+        // Drawn by the renderer, saved as a PNG and imported as a gallery thumbnail
+        THUMBNAIL
+    }
+
+    /* Every scenario that is checked, the names are the file names of the reference images. The budgets are a few
+       times what each scenario takes on a single core, so only a real slowdown or extra allocation fails. */
+    private static final Scenario[] SCENARIOS = {
+            new Scenario("rotation-1-plain", Kind.DRAW, 1, 1, Symmetry.ROTATION, 0, 0, 100, 4),
+            new Scenario("rotation-6-reflect", Kind.DRAW, 2, 6, Symmetry.ROTATION, 1, 0, 150, 16),
+            new Scenario("rotation-12-mixed", Kind.DRAW, 3, 12, Symmetry.ROTATION, 0.5, 0.1, 200, 24),
+            new Scenario("rotation-24-erase", Kind.DRAW, 4, 24, Symmetry.ROTATION, 0.7, 0.4, 250, 40),
+            new Scenario("offset-mirror-8-mixed", Kind.DRAW, 5, 8, Symmetry.OFFSET_MIRROR, 0.5, 0.1, 100, 16),
+            new Scenario("frieze-6-mixed", Kind.DRAW, 6, 6, Symmetry.FRIEZE, 0.5, 0.1, 100, 16),
+            new Scenario("tiling-4-mixed", Kind.DRAW, 7, 4, Symmetry.TILING, 0.5, 0.1, 100, 16),
+            new Scenario("undo-12-erase", Kind.UNDO, 8, 12, Symmetry.ROTATION, 0.7, 0.2, 400, 100),
+            new Scenario("off-canvas-1-plain", Kind.OFF_CANVAS, 11, 1, Symmetry.ROTATION, 0, 0, 100, 12),
+            new Scenario("batch-12-mixed", Kind.BATCH, 10, 12, Symmetry.ROTATION, 0.5, 0.1, 100, 20),
+            new Scenario("thumbnail-12", Kind.THUMBNAIL, 9, 12, Symmetry.ROTATION, 0.7, 0.05, 800, 48),
+    };
+
+    // The number of sketches in each history and the lines in each sketch
+    private static final int STROKES = 60;
+    private static final int POINTS = 12;
+
+    // The directory holding the reference images, relative to the directory the check is run from
+    private File golden = new File("golden");
+
+    // Flag to write new reference images instead of comparing with them
+    private boolean update = false;
+
+    // The largest difference allowed in any colour or alpha channel of a pixel
+    private int tolerance = 8;
+
+    // Multiplies every budget, so slower machines can still run the check
+    private double budgetScale = 1;
+
+    // The settings read by the draw layer, taken from the scenario being drawn
+    private int numberSectors;
+    private Symmetry symmetry;
+
+    /**
+     * Parses the command line and checks every scenario, exiting with status 1 if any failed.
+     * Usage: verify [--golden DIR] [--update] [--tolerance N] [--budget-scale F]
+     * @param args command line arguments, without the leading "verify"
+     */
+    static void main(String[] args) throws Exception {
+        GoldenImageCheck check = new GoldenImageCheck();
+        try {
+            for (int i = 0; i < args.length; i++) {
+                switch (args[i]) {
+                    case "--update":
+                        check.update = true;
+                        break;
+                    case "--golden":
+                        check.golden = new File(value(args, ++i));
+                        break;
+                    case "--tolerance":
+                        check.tolerance = Integer.parseInt(value(args, ++i));
+                        break;
+                    case "--budget-scale":
+                        check.budgetScale = Double.parseDouble(value(args, ++i));
+                        break;
+                    default:
+                        throw new IllegalArgumentException("Unknown option " + args[i]);
+                }
+            }
+        } catch (IllegalArgumentException e) {
+            // Includes numbers which cannot be parsed
+            System.err.println(e.getMessage());
+            System.err.println("Usage: verify [--golden DIR] [--update] [--tolerance N] [--budget-scale F]");
+            System.exit(2);
+        }
+
+        // Without this every scenario would fail as having no reference image, which hides the real problem
+        if (!check.update && !check.golden.isDirectory()) {
+            System.err.println("No reference images at " + check.golden.getAbsolutePath()
+                    + ", run from the project directory or pass --golden DIR");
+            System.exit(2);
+        }
+
+        if (!check.run()) {
+            System.exit(1);
+        }
+    }
+
+    /**
+     * @param args the command line arguments
+     * @param index the position of an option's value
+     * @return the value
+     * @throws IllegalArgumentException if the option is the last argument and has no value
+     */
+    private static String value(String[] args, int index) {
+        if (index >= args.length) {
+            throw new IllegalArgumentException("Missing value for " + args[index - 1]);
+        }
+        return args[index];
+    }
+
+    @Override
+    public int getNumberSectors() {
+        return numberSectors;
+    }
+
+    @Override
+    public Symmetry getSymmetry() {
+        return symmetry;
+    }
+
+    /**
+     * Draws every scenario, comparing or replacing its reference image and checking its budgets.
+     * @return true if every scenario passed
+     */
+    boolean run() throws IOException {
+        com.sun.management.ThreadMXBean threads =
+                (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        if (!threads.isThreadAllocatedMemorySupported() || !threads.isThreadAllocatedMemoryEnabled()) {
+            throw new IllegalStateException("This JVM cannot measure the memory allocated by a thread");
+        }
+        if (update) {
+            golden.mkdirs();
+        }
+
+        int failures = 0;
+        for (Scenario scenario : SCENARIOS) {
+            // Draw once so the classes are loaded and compiled before the budgets are checked
+            draw(scenario);
+
+            // The memory allocated is the same each time, but the fastest of a few runs is used as the time
+            long allocatedBefore = threads.getCurrentThreadAllocatedBytes();
+            BufferedImage actual = draw(scenario);
+            long allocatedMb = (threads.getCurrentThreadAllocatedBytes() - allocatedBefore) / (1024 * 1024);
+            long millis = Long.MAX_VALUE;
+            for (int run = 0; run < TIMED_RUNS; run++) {
+                long start = System.nanoTime();
+                draw(scenario);
+                millis = Math.min(millis, (System.nanoTime() - start) / 1_000_000);
+            }
+
+            File reference = new File(golden, scenario.name + ".png");
+            String result;
+            if (update) {
+                ImageIO.write(actual, "png", reference);
+                result = "updated";
+            } else {
+                result = compare(scenario, actual, reference);
+            }
+
+            // The batch renderer must draw exactly what the editor shows, whatever the reference image holds
+            if (scenario.kind == Kind.BATCH) {
+                String matchesLayer = compare(actual, drawOnLayer(scenario, generate(scenario)));
+                if (matchesLayer != null) {
+                    result = (result.equals("ok") || result.equals("updated") ? "" : result + ", ")
+                            + matchesLayer + " from the draw layer";
+                }
+            }
+
+            long timeBudget = Math.round(scenario.timeBudget * budgetScale);
+            long allocationBudget = Math.round(scenario.allocationBudget * budgetScale);
+            if (millis > timeBudget) {
+                result = result.equals("ok") ? "too slow" : result + ", too slow";
+            }
+            if (allocatedMb > allocationBudget) {
+                result = result.equals("ok") ? "allocated too much" : result + ", allocated too much";
+            }
+            if (!result.equals("ok") && !result.equals("updated")) {
+                failures++;
+            }
+
+            System.out.printf("%-24s %5d/%-5d ms %5d/%-5d MB  %s%n", scenario.name, millis, timeBudget, allocatedMb,
+                    allocationBudget, result);
+        }
+
+        System.out.println(failures == 0 ? "All " + SCENARIOS.length + " scenarios passed"
+                : failures + " of " + SCENARIOS.length + " scenarios failed");
+        return failures == 0;
+    }
+
+    /**
+     * @param scenario the scenario to draw
+     * @return the drawn image
+     */
+    private BufferedImage draw(Scenario scenario) throws IOException {
+        List<Sketch> sketches = generate(scenario);
+        switch (scenario.kind) {
+            case BATCH:
+                return render(sketches, SIZE);
+            case THUMBNAIL:
+                File source = File.createTempFile(scenario.name, ".png");
+                try {
+                    ImageIO.write(render(sketches, THUMBNAIL_SOURCE_SIZE), "png", source);
+                    return GalleryImporter.createThumbnail(source);
+                } finally {
+                    source.delete();
+                }
+            default:
+                return drawOnLayer(scenario, sketches);
+        }
+    }
+
+    /**
+     * Generates the scenario's history and takes its settings, which the draw layer reads while drawing.
+     * @param scenario the scenario to draw
+     * @return the generated sketches
+     */
+    private List<Sketch> generate(Scenario scenario) {
+        numberSectors = scenario.sectors;
+        symmetry = scenario.symmetry;
+
+        DoilyGenerator generator = new DoilyGenerator(scenario.seed);
+        generator.setStrokes(STROKES);
+        generator.setPoints(POINTS);
+        generator.setReflectChance(scenario.reflectChance);
+        generator.setEraseChance(scenario.eraseChance);
+        return generator.generate();
+    }
+
+    /**
+     * Loads the sketches into a draw layer, painted into an image instead of a window, and returns its drawing.
+     * @param scenario the scenario being drawn
+     * @param sketches the generated sketches
+     * @return the drawing once every step of the scenario has been taken
+     */
+    private BufferedImage drawOnLayer(Scenario scenario, List<Sketch> sketches) {
+        DrawLayer drawLayer = new DrawLayer(this, new BackgroundLayer(this));
+        drawLayer.setSize(SIZE, SIZE);
+        BufferedImage frame = new BufferedImage(SIZE, SIZE, BufferedImage.TYPE_INT_ARGB);
+        Graphics2D g = frame.createGraphics();
+        drawLayer.paint(g);
+        drawLayer.loadSketches(sketches);
+
+        if (scenario.kind == Kind.UNDO) {
+            /* Undo the drawn sketches by swapping back their pixels, then undo and redo loaded sketches, which redraws
+               everything, and finally redo a drawn sketch over the redrawn image. */
+            drawLayer.setErasing(true);
+            drawStroke(drawLayer, SIZE / 3);
+            drawLayer.setErasing(false);
+            drawStroke(drawLayer, SIZE / 2);
+            drawStroke(drawLayer, SIZE * 2 / 3);
+            for (int i = 0; i < 5; i++) {
+                drawLayer.undo();
+            }
+            drawLayer.redo();
+            drawLayer.redo();
+            drawLayer.redo();
+        } else if (scenario.kind == Kind.OFF_CANVAS) {
+            // Sketches leaving the canvas touch no tiles past its edges, and their pixels are still swapped back
+            drawLayer.setBrushWidth(10);
+            drawDrag(drawLayer, SIZE / 2, SIZE / 2, -SIZE, SIZE / 3);
+            drawDrag(drawLayer, SIZE / 2, SIZE / 3, SIZE * 2, SIZE / 2);
+            drawDrag(drawLayer, SIZE / 3, SIZE / 2, SIZE / 2, -SIZE);
+            drawDrag(drawLayer, SIZE * 2 / 3, SIZE / 2, SIZE / 2, SIZE * 2);
+            drawDrag(drawLayer, -SIZE, -SIZE, SIZE * 2, SIZE * 2);
+            for (int i = 0; i < 4; i++) {
+                drawLayer.undo();
+            }
+            drawLayer.redo();
+            drawLayer.redo();
+        }
+
+        drawLayer.paint(g);
+        g.dispose();
+        return drawLayer.getSnapshot().toBufferedImage();
+    }
+
+    /**
+     * Draws a sketch across the layer by sending it mouse events.
+     * @param drawLayer the layer to draw on
+     * @param y the height of the sketch on the layer
+     */
+    private static void drawStroke(DrawLayer drawLayer, int y) {
+        long when = System.currentTimeMillis();
+        drawLayer.dispatchEvent(new MouseEvent(drawLayer, MouseEvent.MOUSE_PRESSED, when, 0, SIZE / 5, y, 1, false,
+                MouseEvent.BUTTON1));
+        for (int x = SIZE / 5; x <= SIZE * 4 / 5; x += 4) {
+            drawLayer.dispatchEvent(new MouseEvent(drawLayer, MouseEvent.MOUSE_DRAGGED, when, 0, x, y + x % 12, 0,
+                    false, MouseEvent.BUTTON1));
+        }
+        drawLayer.dispatchEvent(new MouseEvent(drawLayer, MouseEvent.MOUSE_RELEASED, when, 0, SIZE * 4 / 5, y, 1,
+                false, MouseEvent.BUTTON1));
+    }
+
+    /**
+     * Drags a straight sketch across the layer by sending it mouse events, which may be off the layer.
+     * @param drawLayer the layer to draw on
+     * @param fromX the horizontal position the sketch starts at
+     * @param fromY the vertical position the sketch starts at
+     * @param toX the horizontal position the sketch ends at
+     * @param toY the vertical position the sketch ends at
+     */
+    private static void drawDrag(DrawLayer drawLayer, int fromX, int fromY, int toX, int toY) {
+        long when = System.currentTimeMillis();
+        drawLayer.dispatchEvent(new MouseEvent(drawLayer, MouseEvent.MOUSE_PRESSED, when, 0, fromX, fromY, 1, false,
+                MouseEvent.BUTTON1));
+        for (int step = 1; step <= 16; step++) {
+            int x = fromX + (toX - fromX) * step / 16;
+            int y = fromY + (toY - fromY) * step / 16;
+            drawLayer.dispatchEvent(new MouseEvent(drawLayer, MouseEvent.MOUSE_DRAGGED, when, 0, x, y, 0, false,
+                    MouseEvent.BUTTON1));
+        }
+        drawLayer.dispatchEvent(new MouseEvent(drawLayer, MouseEvent.MOUSE_RELEASED, when, 0, toX, toY, 1, false,
+                MouseEvent.BUTTON1));
+    }
+
+    /**
+     * @param sketches the sketches to draw
+     * @param size the width and height of the image
+     * @return the sketches drawn by the renderer used for batch rendering
+     */
+    private BufferedImage render(List<Sketch> sketches, int size) {
+        BufferedImage layer = new BufferedImage(size, size, BufferedImage.TYPE_INT_ARGB);
+        DoilyRenderer.render(sketches, symmetry, numberSectors, null, layer);
+        return layer;
+    }
+
+    /**
+     * Compares an image with its reference, saving the image to a temporary file if they differ so it can be viewed.
+     * @param scenario the scenario that was drawn
+     * @param actual the drawn image
+     * @param reference the reference PNG
+     * @return "ok", or a description of the difference
+     */
+    private String compare(Scenario scenario, BufferedImage actual, File reference) throws IOException {
+        if (!reference.isFile()) {
+            return "no reference image, run with --update to create it";
+        }
+        String difference = compare(actual, ImageIO.read(reference));
+        if (difference == null) {
+            return "ok";
+        }
+
+        File saved = File.createTempFile(scenario.name + "-actual", ".png");
+        ImageIO.write(actual, "png", saved);
+        return difference + ", drawn image saved to " + saved;
+    }
+
+    /**
+     * @param actual the drawn image
+     * @param expected the image it should match
+     * @return null if every pixel matches within the tolerance, otherwise a description of the difference
+     */
+    private String compare(BufferedImage actual, BufferedImage expected) {
+        if (expected.getWidth() != actual.getWidth() || expected.getHeight() != actual.getHeight()) {
+            return "size differs";
+        }
+
+        int differing = 0;
+        int largest = 0;
+        for (int y = 0; y < actual.getHeight(); y++) {
+            for (int x = 0; x < actual.getWidth(); x++) {
+                int difference = difference(expected.getRGB(x, y), actual.getRGB(x, y));
+                largest = Math.max(largest, difference);
+                if (difference > tolerance) {
+                    differing++;
+                }
+            }
+        }
+        return differing == 0 ? null : differing + " pixels differ by up to " + largest;
+    }
+
+    /**
+     * @param first a pixel in ARGB format
+     * @param second another pixel in ARGB format
+     * @return the largest difference between the pixels in any channel. Fully transparent pixels are the same
+     * whatever their colour.
+     */
+    private static int difference(int first, int second) {
+        if ((first >>> 24) == 0 && (second >>> 24) == 0) {
+            return 0;
+        }
+        int largest = 0;
+        for (int shift = 0; shift < 32; shift += 8) {
+            largest = Math.max(largest, Math.abs((first >>> shift & 0xFF) - (second >>> shift & 0xFF)));
+        }
+        return largest;
+    }
+
+    /**
+     * A history to draw and the budgets it must be drawn within.
+     */
+    private static class Scenario {
+        private final String name;
+        private final Kind kind;
+        private final long seed;
+        private final int sectors;
+        private final Symmetry symmetry;
+        private final double reflectChance;
+        private final double eraseChance;
+
+        // The most time in milliseconds and memory in megabytes that drawing the scenario may take
+        private final long timeBudget;
+        private final long allocationBudget;
+
+        /**
+         * @param name the name of the scenario and its reference image
+         * @param kind the way the history is drawn
+         * @param seed the seed the history is generated from
+         * @param sectors the number of sectors
+         * @param symmetry the way the sketches are repeated
+         * @param reflectChance the fraction of sketches which are reflected
+         * @param eraseChance the fraction of sketches which are eraser strokes
+         * @param timeBudget the most time drawing may take, in milliseconds
+         * @param allocationBudget the most memory drawing may allocate, in megabytes
+         */
+        Scenario(String name, Kind kind, long seed, int sectors, Symmetry symmetry, double reflectChance,
+                 double eraseChance, long timeBudget, long allocationBudget) {
+            this.name = name;
+            this.kind = kind;
+            this.seed = seed;
+            this.sectors = sectors;
+            this.symmetry = symmetry;
+            this.reflectChance = reflectChance;
+            this.eraseChance = eraseChance;
+            this.timeBudget = timeBudget;
+            this.allocationBudget = allocationBudget;
+        }
+    }
+}
@@ -0,0 +1,144 @@
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * The undo and redo stacks of a drawing, stored as linked lists which are never changed. Every change returns a new
+ * history sharing all but one node with the old one, so each version costs O(1) to create and keep. A background
+ * thread can hold on to a version and read it without locking while the user carries on drawing.
+ */
+final class History {
+
+    // A history with nothing drawn
+    static final History EMPTY = new History(null, null);
+
+    // The tops of the undo and redo stacks, either may be null when the stack is empty
+    private final Node undo;
+    private final Node redo;
+
+    /**
+     * @param undo the top of the undo stack
+     * @param redo the top of the redo stack
+     */
+    private History(Node undo, Node redo) {
+        this.undo = undo;
+        this.redo = redo;
+    }
+
+    /**
+     * @param sketches the sketches to start with, oldest first
+     * @return a history holding the sketches with nothing to redo
+     */
+    static History of(List<Sketch> sketches) {
+        History history = EMPTY;
+        for (Sketch sketch : sketches) {
+            history = history.push(sketch);
+        }
+        return history;
+    }
+
+    /**
+     * @param sketch a newly drawn sketch
+     * @return a history with the sketch on top of the undo stack and nothing to redo
+     */
+    History push(Sketch sketch) {
+        return new History(new Node(sketch, undo), null);
+    }
+
+    /**
+     * @return a history with the top of the undo stack moved to the redo stack
+     */
+    History undo() {
+        return new History(undo.next, new Node(undo.sketch, redo));
+    }
+
+    /**
+     * @return a history with the top of the redo stack moved back to the undo stack
+     */
+    History redo() {
+        return new History(new Node(redo.sketch, undo), redo.next);
+    }
+
+    /**
+     * @return true if there are any sketches in the undo stack
+     */
+    boolean canUndo() {
+        return undo != null;
+    }
+
+    /**
+     * @return true if there are any sketches in the redo stack
+     */
+    boolean canRedo() {
+        return redo != null;
+    }
+
+    /**
+     * @return the most recently drawn sketch, which would be removed by an undo
+     */
+    Sketch peekUndo() {
+        return undo.sketch;
+    }
+
+    /**
+     * @return the most recently undone sketch, which would be put back by a redo
+     */
+    Sketch peekRedo() {
+        return redo.sketch;
+    }
+
+    /**
+     * @return the number of sketches in the undo stack
+     */
+    int size() {
+        return undo != null ? undo.depth : 0;
+    }
+
+    /**
+     * @return the sketches in the undo stack, oldest first
+     */
+    List<Sketch> getSketches() {
+        return toList(undo);
+    }
+
+    /**
+     * @return the sketches in the redo stack, oldest first
+     */
+    List<Sketch> getRedoSketches() {
+        return toList(redo);
+    }
+
+    /**
+     * @param top the top of a stack
+     * @return the sketches in the stack from the bottom up
+     */
+    private static List<Sketch> toList(Node top) {
+        List<Sketch> sketches = new ArrayList<>(top != null ? top.depth : 0);
+        for (Node node = top; node != null; node = node.next) {
+            sketches.add(node.sketch);
+        }
+        Collections.reverse(sketches);
+        return sketches;
+    }
+
+    /**
+     * A sketch in a stack, linked to the sketch below it.
+     */
+    private static final class Node {
+        private final Sketch sketch;
+        private final Node next;
+
+        // The number of sketches from this node to the bottom of the stack
+        private final int depth;
+
+        /**
+         * @param sketch the sketch at this position
+         * @param next the node below, or null at the bottom of the stack
+         */
+        Node(Sketch sketch, Node next) {
+            this.sketch = sketch;
+            this.next = next;
+            this.depth = next != null ? next.depth + 1 : 1;
+        }
+    }
+}
@@ -1,13 +1,121 @@
+import javax.swing.*;
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+
 /**
  * Cold start the program.
  */
 public class Main {
 
     /**
-     * Instantiate a new editor object
+     * Instantiate a new editor object on the event dispatch thread, or run the headless batch renderer when the first
+     * argument is "render" and the render service when it is "serve". "startup-probe" opens the editor and reports
+     * how long it took to display, and "collab-load-test" measures the collaboration server with simulated users.
+     * "generate" writes a session of generated sketches and "stress" times the editor on very large generated ones.
+     * "verify" checks drawing against the reference images in the golden directory.
      */
-    public static void main(String[] args) {
-        Editor editor = new Editor();
+    public static void main(String[] args) throws Exception {
+        if (args.length > 0 && args[0].equals("render")) {
+            // No window is needed to render so run without a display
+            System.setProperty("java.awt.headless", "true");
+            BatchRenderer.main(Arrays.copyOfRange(args, 1, args.length));
+            return;
+        }
+
+        if (args.length > 0 && args[0].equals("serve")) {
+            System.setProperty("java.awt.headless", "true");
+            RenderServer.main(Arrays.copyOfRange(args, 1, args.length));
+            return;
+        }
+
+        if (args.length > 0 && args[0].equals("collab-load-test")) {
+            System.setProperty("java.awt.headless", "true");
+            CollabLoadTest.main(Arrays.copyOfRange(args, 1, args.length));
+            return;
+        }
+
+        if (args.length > 0 && args[0].equals("generate")) {
+            System.setProperty("java.awt.headless", "true");
+            generate(Arrays.copyOfRange(args, 1, args.length));
+            return;
+        }
+
+        if (args.length > 0 && args[0].equals("stress")) {
+            System.setProperty("java.awt.headless", "true");
+            StressTest.main(Arrays.copyOfRange(args, 1, args.length));
+            return;
+        }
+
+        if (args.length > 0 && args[0].equals("verify")) {
+            System.setProperty("java.awt.headless", "true");
+            GoldenImageCheck.main(Arrays.copyOfRange(args, 1, args.length));
+            return;
+        }
+
+        if (args.length > 0 && args[0].equals("startup-probe")) {
+            StartupProbe.main(Arrays.copyOfRange(args, 1, args.length));
+            return;
+        }
+
+        // Swing components must only be created and used on the event dispatch thread
+        SwingUtilities.invokeLater(Editor::new);
+    }
+
+    /**
+     * Writes a session file of generated sketches, which can be opened in the editor or rendered.
+     * Usage: generate out.doily [--seed N] [--strokes N] [--points N]
+     * @param args command line arguments, without the leading "generate"
+     * @throws IOException if the session file cannot be written
+     */
+    private static void generate(String[] args) throws IOException {
+        long seed = 1;
+        int strokes = 1000;
+        int points = 20;
+        try {
+            if (args.length < 1) {
+                throw new IllegalArgumentException("Missing output file");
+            }
+            for (int i = 1; i < args.length; i += 2) {
+                if (i + 1 == args.length) {
+                    throw new IllegalArgumentException("Missing value for " + args[i]);
+                }
+                try {
+                    switch (args[i]) {
+                        case "--seed":
+                            seed = Long.parseLong(args[i + 1]);
+                            break;
+                        case "--strokes":
+                            strokes = Integer.parseInt(args[i + 1]);
+                            break;
+                        case "--points":
+                            points = Integer.parseInt(args[i + 1]);
+                            break;
+                        default:
+                            throw new IllegalArgumentException("Unknown option " + args[i]);
+                    }
+                } catch (NumberFormatException e) {
+                    throw new IllegalArgumentException(args[i] + " needs a whole number, not " + args[i + 1]);
+                }
+            }
+            if (strokes < 1 || points < 1) {
+                throw new IllegalArgumentException("--strokes and --points must be at least 1");
+            }
+            // Larger files could not be read back
+            if ((long) strokes * points > SessionFile.MAX_LINES) {
+                throw new IllegalArgumentException("A session can have at most " + SessionFile.MAX_LINES
+                        + " lines in total");
+            }
+        } catch (IllegalArgumentException e) {
+            System.err.println(e.getMessage());
+            System.err.println("Usage: generate out.doily [--seed N] [--strokes N] [--points N]");
+            System.exit(2);
+        }
+
+        DoilyGenerator generator = new DoilyGenerator(seed);
+        generator.setStrokes(strokes);
+        generator.setPoints(points);
+        SessionFile.write(new File(args[0]), generator.generate());
     }
 
-}
\ No newline at end of file
+}
@@ -0,0 +1,79 @@
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * A least recently used cache of encoded images, keyed by a hash of the inputs that produced them. The cache is
+ * bounded by the total number of bytes held rather than the number of entries, as image sizes vary widely.
+ */
+class RenderCache {
+
+    // Entries in access order so the first entry is always the least recently used
+    private final LinkedHashMap<String, byte[]> entries = new LinkedHashMap<>(16, 0.75f, true);
+
+    // The maximum and current number of bytes held by the cached images
+    private final long maxBytes;
+    private long bytes;
+
+    // Counters used to report how effective the cache is
+    private long hits;
+    private long misses;
+    private long evictions;
+
+    /**
+     * @param maxBytes the total size of the images the cache may hold
+     */
+    RenderCache(long maxBytes) {
+        this.maxBytes = maxBytes;
+    }
+
+    /**
+     * Looks up a cached image, counting a hit or a miss.
+     * @param key the hash of the inputs
+     * @return the encoded image or null if it is not cached
+     */
+    synchronized byte[] get(String key) {
+        byte[] image = entries.get(key);
+        if (image != null) {
+            hits++;
+        } else {
+            misses++;
+        }
+        return image;
+    }
+
+    /**
+     * Stores an image, evicting the least recently used images until the cache is back under its limit. Images larger
+     * than the whole cache are not stored.
+     * @param key the hash of the inputs
+     * @param image the encoded image
+     */
+    synchronized void put(String key, byte[] image) {
+        if (image.length > maxBytes) {
+            return;
+        }
+
+        byte[] previous = entries.put(key, image);
+        if (previous != null) {
+            bytes -= previous.length;
+        }
+        bytes += image.length;
+
+        Iterator<Map.Entry<String, byte[]>> eldest = entries.entrySet().iterator();
+        while (bytes > maxBytes) {
+            bytes -= eldest.next().getValue().length;
+            eldest.remove();
+            evictions++;
+        }
+    }
+
+    /**
+     * @return a one line summary of the cache counters and size
+     */
+    synchronized String metrics() {
+        long lookups = hits + misses;
+        double hitRate = lookups == 0 ? 0 : (double) hits / lookups;
+        return String.format("hits=%d misses=%d hitRate=%.3f evictions=%d entries=%d bytes=%d maxBytes=%d",
+                hits, misses, hitRate, evictions, entries.size(), bytes, maxBytes);
+    }
+}
@@ -0,0 +1,79 @@
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.PriorityBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Runs the full redraws of every open document on one shared pool of threads. Work for the document being shown is
+ * taken from the queue before work for documents in the background, so opening many documents does not slow down the
+ * one being drawn on. Work of the same priority runs in the order it was submitted.
+ */
+class RenderExecutor {
+
+    /**
+     * How urgent a piece of work is, the earliest listed is run first.
+     */
+    enum Priority {
+        // Redraws of the document being shown, which the user is waiting for
+        VISIBLE,
+        // Thumbnails of documents in other tabs
+        BACKGROUND
+    }
+
+    private final ThreadPoolExecutor pool;
+
+    // Counts submitted work so equal priorities keep their order
+    private final AtomicLong sequence = new AtomicLong();
+
+    /**
+     * @param threads the number of threads to draw on
+     */
+    RenderExecutor(int threads) {
+        pool = new ThreadPoolExecutor(threads, threads, 0, TimeUnit.MILLISECONDS, new PriorityBlockingQueue<>(),
+                runnable -> {
+                    Thread worker = new Thread(runnable, "Render worker");
+                    worker.setDaemon(true);
+                    return worker;
+                });
+    }
+
+    /**
+     * Queues work behind any of a higher or equal priority.
+     * @param priority how urgent the work is
+     * @param work the work to run
+     * @return a future which can be used to cancel the work. Cancelling with interruption interrupts work that has
+     * already started, which is expected to check the flag and stop early.
+     */
+    Future<?> submit(Priority priority, Runnable work) {
+        Task task = new Task(priority, sequence.getAndIncrement(), work);
+        pool.execute(task);
+        return task;
+    }
+
+    /**
+     * Queued work, ordered by priority and then by the order it was submitted.
+     */
+    private static class Task extends FutureTask<Void> implements Comparable<Task> {
+        private final Priority priority;
+        private final long order;
+
+        /**
+         * @param priority how urgent the work is
+         * @param order the position the work was submitted in
+         * @param work the work to run
+         */
+        Task(Priority priority, long order, Runnable work) {
+            super(work, null);
+            this.priority = priority;
+            this.order = order;
+        }
+
+        @Override
+        public int compareTo(Task other) {
+            int compared = priority.compareTo(other.priority);
+            return compared != 0 ? compared : Long.compare(order, other.order);
+        }
+    }
+}
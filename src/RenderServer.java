@@ -0,0 +1,341 @@
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import javax.imageio.ImageIO;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A local HTTP service that renders doilies on demand. A session file is posted to /render and the PNG is returned,
+ * for example: curl --data-binary @a.doily "http://localhost:8765/render?sectors=12&amp;size=400&amp;reflect=on"
+ * Rendered images are cached by a hash of the inputs so repeated requests are served without rendering again, and
+ * the cache counters can be read from /metrics. The symmetry parameter picks the mode, such as symmetry=frieze.
+ */
+class RenderServer {
+
+    // The largest image that may be requested, to stop a single request using all the memory
+    private static final int MAX_SIZE = 4096;
+
+    // The largest session file that may be posted, far more than a hand drawn doily needs
+    private static final int MAX_BODY = 16 * 1024 * 1024;
+
+    /* The largest images a thread keeps between requests. Larger ones are allocated for each request, so every
+       thread that has ever rendered a large image does not hold on to it. */
+    private static final int MAX_KEPT_SIZE = 1024;
+
+    // The port to listen on, the number of render threads and the size of the result cache
+    private int port = 8765;
+    private int threads = Runtime.getRuntime().availableProcessors();
+    private long cacheBytes = 64L * 1024 * 1024;
+
+    private RenderCache cache;
+
+    // Holds the images each render thread draws into so they are only allocated again when the size changes
+    private final ThreadLocal<BufferedImage[]> buffers = new ThreadLocal<>();
+
+    // The renders in progress by cache key, so identical requests arriving together share a single render
+    private final ConcurrentHashMap<String, CompletableFuture<byte[]>> rendering = new ConcurrentHashMap<>();
+
+    /**
+     * Parses the command line and starts the server.
+     * Usage: serve [--port N] [--threads N] [--cache-mb N]
+     * @param args command line arguments, without the leading "serve"
+     */
+    static void main(String[] args) throws IOException {
+        RenderServer server = new RenderServer();
+        try {
+            for (int i = 0; i < args.length; i += 2) {
+                if (i + 1 == args.length) {
+                    throw new IllegalArgumentException("Missing value for " + args[i]);
+                }
+                int value = Integer.parseInt(args[i + 1]);
+                switch (args[i]) {
+                    case "--port":
+                        server.port = value;
+                        break;
+                    case "--threads":
+                        server.threads = value;
+                        break;
+                    case "--cache-mb":
+                        server.cacheBytes = value * 1024L * 1024;
+                        break;
+                    default:
+                        throw new IllegalArgumentException("Unknown option " + args[i]);
+                }
+            }
+        } catch (IllegalArgumentException e) {
+            // Includes numbers which cannot be parsed
+            System.err.println(e.getMessage());
+            System.err.println("Usage: serve [--port N] [--threads N] [--cache-mb N]");
+            System.exit(2);
+        }
+
+        HttpServer http = server.start();
+        System.out.println("Rendering on http://localhost:" + http.getAddress().getPort() + "/render");
+    }
+
+    /**
+     * Binds to the loopback address and starts handling requests.
+     * @return the running HTTP server
+     * @throws IOException if the port cannot be bound
+     */
+    HttpServer start() throws IOException {
+        cache = new RenderCache(cacheBytes);
+
+        HttpServer http = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), port), 0);
+        http.createContext("/render", this::handleRender);
+        http.createContext("/metrics", this::handleMetrics);
+
+        /* Only queue a few requests per thread. When the queue is full the thread accepting connections renders the
+           request itself, which stops it accepting more until the backlog clears. */
+        http.setExecutor(new ThreadPoolExecutor(threads, threads, 0, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(threads * 4), new ThreadPoolExecutor.CallerRunsPolicy()));
+        http.start();
+        return http;
+    }
+
+    /**
+     * Renders the posted session, or returns the cached image if the same inputs have been rendered before.
+     * @param exchange the HTTP request and response
+     */
+    private void handleRender(HttpExchange exchange) throws IOException {
+        try {
+            if (!exchange.getRequestMethod().equals("POST")) {
+                send(exchange, 405, "text/plain", "POST a session file".getBytes(StandardCharsets.UTF_8));
+                return;
+            }
+
+            Map<String, String> query = parseQuery(exchange.getRequestURI().getRawQuery());
+            int numberSectors = Integer.parseInt(query.getOrDefault("sectors", "12"));
+            int size = Integer.parseInt(query.getOrDefault("size", String.valueOf(DoilyRenderer.CANVAS_SIZE)));
+            String reflect = query.getOrDefault("reflect", "saved");
+            Symmetry symmetry = Symmetry.fromName(query.getOrDefault("symmetry", "rotation"));
+            if (numberSectors < 1 || numberSectors > Symmetry.MAX_SECTORS || size < 1 || size > MAX_SIZE
+                    || !(reflect.equals("on") || reflect.equals("off") || reflect.equals("saved"))) {
+                send(exchange, 400, "text/plain", "Invalid sectors, size or reflect".getBytes(StandardCharsets.UTF_8));
+                return;
+            }
+
+            byte[] session = readAll(exchange.getRequestBody(), MAX_BODY);
+            String key = hash(session, symmetry + "/" + numberSectors + "/" + size + "/" + reflect);
+
+            byte[] png = cache.get(key);
+            if (png == null) {
+                png = renderOnce(key, session, symmetry, numberSectors, size,
+                        reflect.equals("saved") ? null : reflect.equals("on"));
+            }
+            send(exchange, 200, "image/png", png);
+        } catch (BodyTooLargeException e) {
+            send(exchange, 413, "text/plain", e.getMessage().getBytes(StandardCharsets.UTF_8));
+        } catch (IOException | IllegalArgumentException e) {
+            // Bad numbers and unknown symmetry names are both reported as illegal arguments
+            String message = e.getMessage() != null ? e.getMessage() : "Invalid session file";
+            send(exchange, 400, "text/plain", message.getBytes(StandardCharsets.UTF_8));
+        } catch (RuntimeException | OutOfMemoryError e) {
+            /* Anything else is a fault in the server, or a render too large for the memory left, the client still gets
+               an answer instead of a dropped connection */
+            e.printStackTrace();
+            send(exchange, 500, "text/plain", "Render failed".getBytes(StandardCharsets.UTF_8));
+        } finally {
+            // Closes the exchange even if sending the response failed part way through
+            exchange.close();
+        }
+    }
+
+    /**
+     * Returns the cache counters as plain text.
+     * @param exchange the HTTP request and response
+     */
+    private void handleMetrics(HttpExchange exchange) throws IOException {
+        send(exchange, 200, "text/plain", (cache.metrics() + "\n").getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * Renders a session and caches the result, unless the same render is already in progress on another thread, in
+     * which case that one is waited for instead.
+     * @param key the cache key of the render
+     * @param session the session file contents
+     * @param symmetry the way the doily is repeated
+     * @param numberSectors the number of sectors the doily is repeated in
+     * @param size the width and height of the image
+     * @param reflect whether to mirror every sketch, or null to use the saved settings
+     * @return the encoded PNG
+     * @throws IOException if the session cannot be read
+     */
+    private byte[] renderOnce(String key, byte[] session, Symmetry symmetry, int numberSectors, int size,
+                              Boolean reflect) throws IOException {
+        CompletableFuture<byte[]> mine = new CompletableFuture<>();
+        CompletableFuture<byte[]> running = rendering.putIfAbsent(key, mine);
+        if (running != null) {
+            return await(running);
+        }
+
+        try {
+            byte[] png = render(session, symmetry, numberSectors, size, reflect);
+            cache.put(key, png);
+            mine.complete(png);
+            return png;
+        } catch (IOException | RuntimeException | Error e) {
+            // The threads waiting for this render fail in the same way
+            mine.completeExceptionally(e);
+            throw e;
+        } finally {
+            rendering.remove(key, mine);
+        }
+    }
+
+    /**
+     * Waits for a render started by another thread.
+     * @param running the render
+     * @return the encoded PNG
+     * @throws IOException if the session could not be read
+     */
+    private static byte[] await(CompletableFuture<byte[]> running) throws IOException {
+        try {
+            return running.join();
+        } catch (CompletionException e) {
+            // Rethrow what the rendering thread threw so it is answered in the same way
+            Throwable cause = e.getCause();
+            if (cause instanceof IOException) {
+                throw (IOException) cause;
+            }
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            if (cause instanceof Error) {
+                throw (Error) cause;
+            }
+            throw e;
+        }
+    }
+
+    /**
+     * Renders a session onto a black background and encodes it as a PNG.
+     * @param session the session file contents
+     * @param symmetry the way the doily is repeated
+     * @param numberSectors the number of sectors the doily is repeated in
+     * @param size the width and height of the image
+     * @param reflect whether to mirror every sketch, or null to use the saved settings
+     * @return the encoded PNG
+     * @throws IOException if the session cannot be read
+     */
+    private byte[] render(byte[] session, Symmetry symmetry, int numberSectors, int size, Boolean reflect)
+            throws IOException {
+        BufferedImage[] images = buffers.get();
+        if (images == null || images[0].getWidth() != size) {
+            images = new BufferedImage[]{
+                    new BufferedImage(size, size, BufferedImage.TYPE_INT_ARGB),
+                    new BufferedImage(size, size, BufferedImage.TYPE_INT_RGB)};
+            // Only small images are kept for the next request, larger ones are left for the garbage collector
+            if (size <= MAX_KEPT_SIZE) {
+                buffers.set(images);
+            }
+        }
+
+        DoilyRenderer.render(SessionFile.read(new ByteArrayInputStream(session)), symmetry, numberSectors, reflect,
+                images[0]);
+        BatchRenderer.flatten(images[0], images[1]);
+
+        ByteArrayOutputStream png = new ByteArrayOutputStream();
+        ImageIO.write(images[1], "png", png);
+        return png.toByteArray();
+    }
+
+    /**
+     * @param session the session file contents
+     * @param settings the render settings
+     * @return a hex encoded SHA-256 hash of the session and settings
+     */
+    private static String hash(byte[] session, String settings) {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            digest.update(settings.getBytes(StandardCharsets.UTF_8));
+            digest.update((byte) 0);
+            StringBuilder hex = new StringBuilder();
+            for (byte b : digest.digest(session)) {
+                hex.append(String.format("%02x", b));
+            }
+            return hex.toString();
+        } catch (NoSuchAlgorithmException e) {
+            // Every Java platform is required to support SHA-256
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * @param query the raw query string, which may be null
+     * @return the query parameters by name
+     */
+    private static Map<String, String> parseQuery(String query) {
+        Map<String, String> parameters = new HashMap<>();
+        if (query != null) {
+            for (String parameter : query.split("&")) {
+                int equals = parameter.indexOf('=');
+                if (equals > 0) {
+                    parameters.put(parameter.substring(0, equals), parameter.substring(equals + 1));
+                }
+            }
+        }
+        return parameters;
+    }
+
+    /**
+     * @param in the stream to read
+     * @param limit the most bytes to accept
+     * @return everything remaining in the stream
+     * @throws BodyTooLargeException if the stream holds more than the limit
+     */
+    private static byte[] readAll(InputStream in, int limit) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        byte[] buffer = new byte[8192];
+        int read;
+        while ((read = in.read(buffer)) != -1) {
+            if (out.size() + read > limit) {
+                throw new BodyTooLargeException("Session files are limited to " + limit / (1024 * 1024) + " MB");
+            }
+            out.write(buffer, 0, read);
+        }
+        return out.toByteArray();
+    }
+
+    /**
+     * Sends a complete response and closes the exchange.
+     * @param exchange the HTTP request and response
+     * @param status the HTTP status code
+     * @param contentType the type of the body
+     * @param body the response body
+     */
+    private static void send(HttpExchange exchange, int status, String contentType, byte[] body) throws IOException {
+        exchange.getResponseHeaders().set("Content-Type", contentType);
+        exchange.sendResponseHeaders(status, body.length);
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(body);
+        }
+    }
+
+    /**
+     * Thrown when a request body is larger than the server accepts.
+     */
+    private static class BodyTooLargeException extends IOException {
+        BodyTooLargeException(String message) {
+            super(message);
+        }
+    }
+}
@@ -0,0 +1,145 @@
+import java.awt.*;
+import java.awt.geom.Ellipse2D;
+import java.awt.geom.Line2D;
+import java.io.*;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Reads and writes a history of sketches as a compact binary file so a drawing session can be reopened in the editor
+ * or rendered later without a display.
+ */
+class SessionFile {
+
+    // The file extension used for saved sessions
+    static final String EXTENSION = ".doily";
+
+    // Marks the start of a session file ("DOIL") so other files can be rejected
+    private static final int MAGIC = 0x444F494C;
+
+    /* Incremented whenever the layout of the file changes. Version 1 stored coordinates in pixels on an 800 pixel
+       canvas, version 2 stores canvas coordinates from 0 to 1. */
+    private static final int VERSION = 2;
+
+    /* The most sketches, and the most lines in total, a file may hold. The counts are checked before anything is read
+       so a damaged or hostile file cannot ask for more memory than a real drawing would use. */
+    static final int MAX_LINES = 4_000_000;
+
+    /**
+     * Only static helpers are provided so the class should not be instantiated.
+     */
+    private SessionFile() {
+    }
+
+    /**
+     * Writes the sketches to a file.
+     * @param file the file to write to
+     * @param sketches the sketches to save, oldest first
+     * @throws IOException if the file cannot be written
+     */
+    static void write(File file, List<Sketch> sketches) throws IOException {
+        try (OutputStream out = new BufferedOutputStream(new FileOutputStream(file))) {
+            write(out, sketches);
+        }
+    }
+
+    /**
+     * Writes the sketches to a stream. The stream is not closed.
+     * @param stream the stream to write to
+     * @param sketches the sketches to save, oldest first
+     * @throws IOException if the stream cannot be written
+     */
+    static void write(OutputStream stream, List<Sketch> sketches) throws IOException {
+        DataOutputStream out = new DataOutputStream(stream);
+        out.writeInt(MAGIC);
+        out.writeInt(VERSION);
+        out.writeInt(sketches.size());
+
+        for (Sketch sketch : sketches) {
+            // Brush settings
+            out.writeInt(sketch.getColour().getRGB());
+            out.writeInt(sketch.getWidth());
+            out.writeBoolean(sketch.getReflect());
+            out.writeBoolean(sketch.getErase());
+
+            // The point drawn when the mouse was pressed
+            Ellipse2D point = sketch.getStartPoint();
+            out.writeDouble(point.getX());
+            out.writeDouble(point.getY());
+            out.writeDouble(point.getWidth());
+            out.writeDouble(point.getHeight());
+
+            // The lines drawn while the mouse was dragged
+            out.writeInt(sketch.getLines().size());
+            for (Line2D line : sketch.getLines()) {
+                out.writeDouble(line.getX1());
+                out.writeDouble(line.getY1());
+                out.writeDouble(line.getX2());
+                out.writeDouble(line.getY2());
+            }
+        }
+        out.flush();
+    }
+
+    /**
+     * Reads the sketches from a file.
+     * @param file the file to read from
+     * @return the saved sketches, oldest first
+     * @throws IOException if the file cannot be read or is not a session file
+     */
+    static List<Sketch> read(File file) throws IOException {
+        try (InputStream in = new BufferedInputStream(new FileInputStream(file))) {
+            return read(in);
+        }
+    }
+
+    /**
+     * Reads the sketches from a stream. The stream is not closed.
+     * @param stream the stream to read from
+     * @return the saved sketches, oldest first
+     * @throws IOException if the stream cannot be read or does not hold a session
+     */
+    static List<Sketch> read(InputStream stream) throws IOException {
+        DataInputStream in = new DataInputStream(stream);
+        if (in.readInt() != MAGIC) {
+            throw new IOException("Not a doily session file");
+        }
+        int version = in.readInt();
+        if (version < 1 || version > VERSION) {
+            throw new IOException("Unsupported session file version " + version);
+        }
+
+        // Older files are converted from pixels to canvas coordinates as they are read
+        double scale = version == 1 ? 1.0 / DoilyRenderer.CANVAS_SIZE : 1;
+
+        int sketchCount = in.readInt();
+        if (sketchCount < 0 || sketchCount > MAX_LINES) {
+            throw new IOException("Invalid number of sketches " + sketchCount);
+        }
+
+        // The lists are not sized from the counts, so they only grow as far as the data really goes
+        List<Sketch> sketches = new ArrayList<>();
+        int totalLines = 0;
+        for (int i = 0; i < sketchCount; i++) {
+            Color colour = new Color(in.readInt(), true);
+            int width = in.readInt();
+            boolean reflect = in.readBoolean();
+            boolean erase = in.readBoolean();
+            Ellipse2D startPoint = new Ellipse2D.Double(in.readDouble() * scale, in.readDouble() * scale,
+                    in.readDouble() * scale, in.readDouble() * scale);
+
+            int count = in.readInt();
+            if (count < 0 || count > MAX_LINES - totalLines) {
+                throw new IOException("Invalid number of lines " + count);
+            }
+            totalLines += count;
+            List<Line2D> lines = new ArrayList<>();
+            for (int j = 0; j < count; j++) {
+                lines.add(new Line2D.Double(in.readDouble() * scale, in.readDouble() * scale,
+                        in.readDouble() * scale, in.readDouble() * scale));
+            }
+            sketches.add(new Sketch(colour, width, reflect, erase, startPoint, lines));
+        }
+        return sketches;
+    }
+}
@@ -1,71 +1,72 @@
 import java.awt.*;
 import java.awt.geom.Ellipse2D;
 import java.awt.geom.Line2D;
+import java.awt.geom.Point2D;
+import java.awt.geom.Rectangle2D;
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
 
 /**
  * A brush stroke of multiple lines on the doily, triggered by a mouse drag event.
- * This is used when redrawing the doily.
+ * This is used when redrawing the doily. Sketches cannot be changed once created, so they can be shared with
+ * background threads that export or render the drawing while the user carries on drawing.
  */
-class Sketch {
+final class Sketch {
 
     // Brush colour
-    private Color colour;
+    private final Color colour;
 
     // Brush width
-    private Integer width;
+    private final int width;
 
     // FLAGS
     // Reflect toggle
-    private Boolean reflect;
+    private final boolean reflect;
     // Erase toggle
-    private Boolean erase;
+    private final boolean erase;
 
     // Stores a circle at the start of the sketch
-    private Ellipse2D startPoint;
+    private final Ellipse2D startPoint;
 
     // Stores all the lines that make up the sketch
-    private ArrayList<Line2D> lines = new ArrayList<>();
+    private final List<Line2D> lines;
 
     /**
-     * Constructor to set member variables
+     * Constructor to set member variables. The point and lines are copied so later changes to them do not affect
+     * the sketch.
      * @param colour save the brush colour
      * @param width save the brush width
      * @param reflect store whether to reflect points when redrawing sketch
      * @param erase store whether to erase other sketches when redrawing
+     * @param startPoint the point drawn at the start of the sketch
+     * @param lines the lines drawn while the mouse was dragged
      */
-    Sketch(Color colour, Integer width, Boolean reflect, Boolean erase) {
+    Sketch(Color colour, int width, boolean reflect, boolean erase, Ellipse2D startPoint, List<Line2D> lines) {
         this.colour = colour;
         this.width = width;
         this.reflect = reflect;
         this.erase = erase;
-    }
+        this.startPoint = (Ellipse2D) startPoint.clone();
 
-    /**
-     * @param point The point drawn at the start of the sketch
-     */
-    void setStartPoint(Ellipse2D point) {
-        startPoint = point;
+        List<Line2D> copies = new ArrayList<>(lines.size());
+        for (Line2D line : lines) {
+            copies.add(new FixedLine(line));
+        }
+        this.lines = Collections.unmodifiableList(copies);
     }
 
     /**
-     * @return the ellipse at the start of the sketch
+     * @return a copy of the ellipse at the start of the sketch
      */
     Ellipse2D getStartPoint() {
-        return startPoint;
-    }
-
-    /**
-     * @param line is added to the sketches array list.
-     */
-    void addLine(Line2D line) {
-        lines.add(line);
+        return (Ellipse2D) startPoint.clone();
     }
 
     /**
-     * @return the array list containing all the lines
+     * @return the lines that make up the sketch - neither the list nor the lines can be changed
      */
-    ArrayList<Line2D> getLines() {
+    List<Line2D> getLines() {
         return lines;
     }
 
@@ -77,19 +78,80 @@ class Sketch {
     /**
      * @return the brush width used for the sketch
      */
-    Integer getWidth() {
+    int getWidth() {
         return width;
     }
 
     /**
      * @return whether to reflect the sketch in each sector
      */
-    Boolean getReflect() {
+    boolean getReflect() {
         return reflect;
     }
 
     /**
      * @return whether to set the composite to clear to remove parts of other sketches
      */
-    Boolean getErase() { return erase; }
+    boolean getErase() { return erase; }
+
+    /**
+     * A line whose end points are fixed when it is created, so the lines can be handed out to renderers and exporters
+     * without copying them each time the sketch is drawn.
+     */
+    private static final class FixedLine extends Line2D {
+        private final double x1, y1, x2, y2;
+
+        /**
+         * @param line the line to copy the end points of
+         */
+        FixedLine(Line2D line) {
+            x1 = line.getX1();
+            y1 = line.getY1();
+            x2 = line.getX2();
+            y2 = line.getY2();
+        }
+
+        @Override
+        public double getX1() {
+            return x1;
+        }
+
+        @Override
+        public double getY1() {
+            return y1;
+        }
+
+        @Override
+        public Point2D getP1() {
+            return new Point2D.Double(x1, y1);
+        }
+
+        @Override
+        public double getX2() {
+            return x2;
+        }
+
+        @Override
+        public double getY2() {
+            return y2;
+        }
+
+        @Override
+        public Point2D getP2() {
+            return new Point2D.Double(x2, y2);
+        }
+
+        /**
+         * @throws UnsupportedOperationException always, as the lines of a sketch cannot be changed
+         */
+        @Override
+        public void setLine(double x1, double y1, double x2, double y2) {
+            throw new UnsupportedOperationException("The lines of a sketch cannot be changed");
+        }
+
+        @Override
+        public Rectangle2D getBounds2D() {
+            return new Rectangle2D.Double(Math.min(x1, x2), Math.min(y1, y2), Math.abs(x2 - x1), Math.abs(y2 - y1));
+        }
+    }
 }
@@ -0,0 +1,207 @@
+import java.awt.*;
+import java.awt.image.BufferedImage;
+import java.util.Arrays;
+import java.util.BitSet;
+
+/**
+ * A transparent ARGB image stored as 64x64 tiles, where every fully transparent tile shares a single empty array.
+ * Most of a doily is transparent, so memory use and the cost of copying scale with the painted area instead of the
+ * size of the canvas. Tiles are never changed once stored, which lets copies share them. Each tile has a dirty bit
+ * so it can be kept in step with a dense image by copying only the tiles that have been drawn on.
+ */
+class SparseImage {
+
+    // The width and height of a tile in pixels
+    static final int TILE_SIZE = 64;
+
+    // The tile shared by every fully transparent area
+    private static final int[] EMPTY = new int[TILE_SIZE * TILE_SIZE];
+
+    // The size of the image in pixels and in tiles
+    private final int width;
+    private final int height;
+    private final int columns;
+    private final int rows;
+
+    // The pixels of each tile, row by row, in packed ARGB
+    private final int[][] tiles;
+
+    // Tiles which have changed in the dense image since they were last copied
+    private final BitSet dirty;
+
+    /**
+     * Creates a fully transparent image.
+     * @param width the width in pixels
+     * @param height the height in pixels
+     */
+    SparseImage(int width, int height) {
+        this.width = width;
+        this.height = height;
+        columns = (width + TILE_SIZE - 1) / TILE_SIZE;
+        rows = (height + TILE_SIZE - 1) / TILE_SIZE;
+        tiles = new int[columns * rows][];
+        Arrays.fill(tiles, EMPTY);
+        dirty = new BitSet(tiles.length);
+    }
+
+    /**
+     * Creates a copy sharing the tiles of another image.
+     * @param source the image to copy
+     */
+    private SparseImage(SparseImage source) {
+        width = source.width;
+        height = source.height;
+        columns = source.columns;
+        rows = source.rows;
+        tiles = source.tiles.clone();
+        dirty = (BitSet) source.dirty.clone();
+    }
+
+    /**
+     * @param image the dense image to copy
+     * @return a sparse copy of the image
+     */
+    static SparseImage of(BufferedImage image) {
+        SparseImage sparse = new SparseImage(image.getWidth(), image.getHeight());
+        sparse.markAllDirty();
+        sparse.sync(image);
+        return sparse;
+    }
+
+    /**
+     * @return the width in pixels
+     */
+    int getWidth() {
+        return width;
+    }
+
+    /**
+     * @return the height in pixels
+     */
+    int getHeight() {
+        return height;
+    }
+
+    /**
+     * @return a copy of the image - this only copies the references to the tiles as they are never changed
+     */
+    SparseImage copy() {
+        return new SparseImage(this);
+    }
+
+    /**
+     * Marks the tiles overlapping an area of the dense image as changed.
+     * @param area the area that was drawn on, in pixels
+     */
+    void markDirty(Rectangle area) {
+        // Round down for areas left of or above the image, so they give negative tile positions instead of zero
+        int firstColumn = Math.max(0, Math.floorDiv(area.x, TILE_SIZE));
+        int firstRow = Math.max(0, Math.floorDiv(area.y, TILE_SIZE));
+        int lastColumn = Math.min(columns - 1, Math.floorDiv(area.x + area.width - 1, TILE_SIZE));
+        int lastRow = Math.min(rows - 1, Math.floorDiv(area.y + area.height - 1, TILE_SIZE));
+
+        // Strokes dragged off the canvas can touch no tiles at all
+        if (lastColumn < firstColumn || lastRow < firstRow) {
+            return;
+        }
+
+        for (int row = firstRow; row <= lastRow; row++) {
+            dirty.set(row * columns + firstColumn, row * columns + lastColumn + 1);
+        }
+    }
+
+    /**
+     * Marks every tile as changed, used when the whole dense image has been redrawn.
+     */
+    void markAllDirty() {
+        dirty.set(0, tiles.length);
+    }
+
+    /**
+     * Copies the dirty tiles from the dense image and clears their dirty bits. Tiles which are now fully transparent go
+     * back to sharing the empty tile.
+     * @param image the dense image the tiles were drawn on, the same size as this image
+     */
+    void sync(BufferedImage image) {
+        for (int tile = dirty.nextSetBit(0); tile >= 0; tile = dirty.nextSetBit(tile + 1)) {
+            int x = (tile % columns) * TILE_SIZE;
+            int y = (tile / columns) * TILE_SIZE;
+            int tileWidth = Math.min(TILE_SIZE, width - x);
+            int tileHeight = Math.min(TILE_SIZE, height - y);
+
+            int[] pixels = new int[TILE_SIZE * TILE_SIZE];
+            image.getRGB(x, y, tileWidth, tileHeight, pixels, 0, TILE_SIZE);
+            tiles[tile] = isTransparent(pixels) ? EMPTY : pixels;
+        }
+        dirty.clear();
+    }
+
+    /**
+     * @return a copy of the dirty bits, one for each tile
+     */
+    BitSet getDirtyTiles() {
+        return (BitSet) dirty.clone();
+    }
+
+    /**
+     * @param tile the index of a tile, counting across each row of tiles in turn
+     * @return the pixels of the tile, row by row with TILE_SIZE pixels per row - these must not be changed
+     */
+    int[] getTile(int tile) {
+        return tiles[tile];
+    }
+
+    /**
+     * @param tile the index of a tile
+     * @return the area the tile covers in pixels, which is smaller than a full tile at the right and bottom edges
+     */
+    Rectangle getTileBounds(int tile) {
+        int x = (tile % columns) * TILE_SIZE;
+        int y = (tile / columns) * TILE_SIZE;
+        return new Rectangle(x, y, Math.min(TILE_SIZE, width - x), Math.min(TILE_SIZE, height - y));
+    }
+
+    /**
+     * @return a new dense image holding the pixels, used when the image needs displaying or exporting
+     */
+    BufferedImage toBufferedImage() {
+        BufferedImage image = new BufferedImage(width, height, BufferedImage.TYPE_INT_ARGB);
+        for (int tile = 0; tile < tiles.length; tile++) {
+            // The new image is already transparent so empty tiles can be skipped
+            if (tiles[tile] == EMPTY) {
+                continue;
+            }
+            int x = (tile % columns) * TILE_SIZE;
+            int y = (tile / columns) * TILE_SIZE;
+            image.setRGB(x, y, Math.min(TILE_SIZE, width - x), Math.min(TILE_SIZE, height - y),
+                    tiles[tile], 0, TILE_SIZE);
+        }
+        return image;
+    }
+
+    /**
+     * @return the number of bytes used by the tiles that are not shared with the empty tile
+     */
+    long paintedBytes() {
+        long bytes = 0;
+        for (int[] tile : tiles) {
+            if (tile != EMPTY) {
+                bytes += tile.length * 4L;
+            }
+        }
+        return bytes;
+    }
+
+    /**
+     * @param pixels the pixels of a tile
+     * @return true if every pixel has an alpha of zero
+     */
+    private static boolean isTransparent(int[] pixels) {
+        for (int pixel : pixels) {
+            if ((pixel >>> 24) != 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
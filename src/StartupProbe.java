@@ -0,0 +1,43 @@
+import javax.swing.*;
+import java.awt.*;
+import java.lang.management.ManagementFactory;
+
+/**
+ * Times how long the editor takes to start, from the launch of the JVM to the first frame of the canvas being
+ * displayed, then exits. Running it a few times with and without the class data sharing archive made by
+ * scripts/cds-archive.sh shows whether a change has slowed start up. It needs a display as it opens the real window.
+ */
+class StartupProbe {
+
+    /**
+     * Opens the editor and prints the start up times once the first frame has been displayed.
+     * Usage: startup-probe
+     * @param args command line arguments, without the leading "startup-probe"
+     */
+    static void main(String[] args) {
+        long mainStarted = System.nanoTime();
+
+        // Without a display the window cannot open, so stop instead of waiting for a frame that never comes
+        if (GraphicsEnvironment.isHeadless()) {
+            System.err.println("startup-probe needs a display");
+            System.exit(1);
+        }
+
+        SwingUtilities.invokeLater(() -> {
+            Editor editor = new Editor();
+            long editorBuilt = System.nanoTime();
+
+            editor.onFirstFrame(() -> {
+                long firstFrame = System.nanoTime();
+
+                /* The management classes are only loaded now, so they are not counted in the times. The JVM's uptime
+                   covers the time spent before main was called, such as loading the core classes. */
+                long uptime = ManagementFactory.getRuntimeMXBean().getUptime();
+
+                System.out.printf("Editor built in %d ms, first frame %d ms after main and %d ms after JVM start%n",
+                        (editorBuilt - mainStarted) / 1_000_000, (firstFrame - mainStarted) / 1_000_000, uptime);
+                System.exit(0);
+            });
+        });
+    }
+}
@@ -0,0 +1,194 @@
+import java.awt.*;
+import java.awt.event.MouseEvent;
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.util.List;
+
+/**
+ * Times the editor's operations on very large generated drawings. For each size a history is generated and loaded
+ * into a draw layer, then undo and redo are timed both when they redraw every sketch and when they swap back the
+ * pixels kept for a sketch, followed by changing the number of sectors and exporting a short time-lapse. The memory
+ * used by the painted tiles of the layer's sparse copy is reported next to that of the full image, and the layer is
+ * painted into an image instead of a window, so no display is needed.
+ */
+class StressTest implements CanvasSettings {
+
+    // The number of frames and the frame size of the time-lapse that is exported
+    private static final int EXPORT_FRAMES = 20;
+    private static final int EXPORT_SIZE = 200;
+
+    // The history sizes to time, each is generated from the same seed
+    private int[] strokes = {1000, 10000};
+    private int points = 20;
+    private long seed = 1;
+
+    // The width and height of the draw layer
+    private int size = DoilyRenderer.CANVAS_SIZE;
+
+    // The settings read by the layers, changed part way through to time the redraw
+    private int numberSectors = 12;
+    private Symmetry symmetry = Symmetry.ROTATION;
+
+    /**
+     * Parses the command line and runs the test.
+     * Usage: stress [--strokes N,N,...] [--points N] [--seed N] [--size N]
+     * Every full redraw draws each line once per sector, so the larger sizes take minutes per operation. A million
+     * strokes also needs a larger heap than the default, or fewer points per stroke.
+     * @param args command line arguments, without the leading "stress"
+     */
+    static void main(String[] args) throws Exception {
+        StressTest test = new StressTest();
+        for (int i = 0; i + 1 < args.length; i += 2) {
+            String value = args[i + 1];
+            switch (args[i]) {
+                case "--strokes":
+                    String[] sizes = value.split(",");
+                    test.strokes = new int[sizes.length];
+                    for (int j = 0; j < sizes.length; j++) {
+                        test.strokes[j] = Integer.parseInt(sizes[j].trim());
+                    }
+                    break;
+                case "--points":
+                    test.points = Integer.parseInt(value);
+                    break;
+                case "--seed":
+                    test.seed = Long.parseLong(value);
+                    break;
+                case "--size":
+                    test.size = Integer.parseInt(value);
+                    break;
+                default:
+                    throw new IllegalArgumentException("Unknown option " + args[i]);
+            }
+        }
+        test.run();
+    }
+
+    @Override
+    public int getNumberSectors() {
+        return numberSectors;
+    }
+
+    @Override
+    public Symmetry getSymmetry() {
+        return symmetry;
+    }
+
+    /**
+     * Times every operation for each history size and prints one row per size, all times in milliseconds.
+     */
+    void run() throws IOException, InterruptedException {
+        System.out.printf("%9s %9s %9s %9s %9s %9s %9s %9s %9s %9s %9s %9s%n", "strokes", "generate", "load", "undo",
+                "redo", "undo-px", "redo-px", "sectors", "export", "heap-mb", "sparse-kb", "dense-kb");
+        for (int count : strokes) {
+            numberSectors = 12;
+            System.out.println(measure(count));
+        }
+    }
+
+    /**
+     * @param count the number of sketches to generate
+     * @return the row of timings for the history
+     */
+    private String measure(int count) throws IOException, InterruptedException {
+        long start = System.nanoTime();
+        DoilyGenerator generator = new DoilyGenerator(seed);
+        generator.setStrokes(count);
+        generator.setPoints(points);
+        List<Sketch> sketches = generator.generate();
+        double generate = since(start);
+
+        // Painting the layer once creates its image, as the first frame on screen would
+        DrawLayer drawLayer = new DrawLayer(this, new BackgroundLayer(this));
+        drawLayer.setSize(size, size);
+        BufferedImage frame = new BufferedImage(size, size, BufferedImage.TYPE_INT_ARGB);
+        Graphics2D g = frame.createGraphics();
+        drawLayer.paint(g);
+
+        start = System.nanoTime();
+        drawLayer.loadSketches(sketches);
+        double load = since(start);
+
+        // No pixels are kept for loaded sketches, so these redraw everything else
+        start = System.nanoTime();
+        drawLayer.undo();
+        double undo = since(start);
+
+        start = System.nanoTime();
+        drawLayer.redo();
+        double redo = since(start);
+
+        // A sketch drawn with the mouse keeps the pixels it changed, so undoing it only swaps those back
+        drawStroke(drawLayer);
+        start = System.nanoTime();
+        drawLayer.undo();
+        double undoPixels = since(start);
+
+        start = System.nanoTime();
+        drawLayer.redo();
+        double redoPixels = since(start);
+
+        numberSectors = 16;
+        start = System.nanoTime();
+        drawLayer.symmetryChanged();
+        double sectors = since(start);
+
+        // Check the final drawing can still be displayed
+        drawLayer.paint(g);
+        g.dispose();
+
+        // Only the tiles with something drawn on them use memory in the sparse copy, the full image always does
+        long sparse = drawLayer.getSnapshot().paintedBytes() / 1024;
+        long dense = (long) size * size * 4 / 1024;
+
+        File gif = File.createTempFile("stress", ".gif");
+        try {
+            start = System.nanoTime();
+            AnimationExporter exporter = new AnimationExporter(drawLayer.getHistory().getSketches(), numberSectors);
+            exporter.setSymmetry(symmetry);
+            exporter.setFrames(EXPORT_FRAMES);
+            exporter.setSize(EXPORT_SIZE);
+            exporter.export(gif);
+        } finally {
+            gif.delete();
+        }
+        double export = since(start);
+
+        // Measure the memory held while the history is still in use
+        Runtime runtime = Runtime.getRuntime();
+        runtime.gc();
+        long heap = (runtime.totalMemory() - runtime.freeMemory()) / (1024 * 1024);
+        if (drawLayer.getHistory().getSketches().size() != count + 1) {
+            throw new IllegalStateException("History lost sketches");
+        }
+
+        return String.format("%9d %9.1f %9.1f %9.1f %9.1f %9.2f %9.2f %9.1f %9.1f %9d %9d %9d", count, generate, load,
+                undo, redo, undoPixels, redoPixels, sectors, export, heap, sparse, dense);
+    }
+
+    /**
+     * Draws a short sketch across the middle of the layer by sending it mouse events.
+     * @param drawLayer the layer to draw on
+     */
+    private void drawStroke(DrawLayer drawLayer) {
+        long when = System.currentTimeMillis();
+        int y = size / 2;
+        drawLayer.dispatchEvent(new MouseEvent(drawLayer, MouseEvent.MOUSE_PRESSED, when, 0, size / 4, y, 1, false,
+                MouseEvent.BUTTON1));
+        for (int x = size / 4; x <= size * 3 / 4; x += 10) {
+            drawLayer.dispatchEvent(new MouseEvent(drawLayer, MouseEvent.MOUSE_DRAGGED, when, 0, x, y + x % 30, 0,
+                    false, MouseEvent.BUTTON1));
+        }
+        drawLayer.dispatchEvent(new MouseEvent(drawLayer, MouseEvent.MOUSE_RELEASED, when, 0, size * 3 / 4, y, 1,
+                false, MouseEvent.BUTTON1));
+    }
+
+    /**
+     * @param start a time from System.nanoTime
+     * @return the milliseconds since that time
+     */
+    private static double since(long start) {
+        return (System.nanoTime() - start) / 1e6;
+    }
+}
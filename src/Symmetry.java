@@ -0,0 +1,268 @@
+import java.awt.geom.AffineTransform;
+import java.awt.geom.Line2D;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * The ways a sketch can be repeated across the doily. Each mode is a table of transforms in canvas coordinates, which
+ * the renderer draws every shape through in turn, so adding a mode only means building a new table. A table has the
+ * plain copies and, when the sketch is reflected, the mirrored copies. Transforms that would draw the same copy twice
+ * are removed when the table is built.
+ */
+enum Symmetry {
+
+    /**
+     * The number of sectors sets how many times the sketch is rotated about the center. Reflected sketches are also
+     * mirrored in the vertical axis, which gives the dihedral group.
+     */
+    ROTATION("Rotation") {
+        @Override
+        List<AffineTransform> build(int numberSectors, boolean reflect) {
+            return rotations(numberSectors, reflect ? mirror(0) : null);
+        }
+
+        @Override
+        List<Line2D> buildGuides(int numberSectors) {
+            return sectorLines(numberSectors);
+        }
+    },
+
+    /**
+     * The same rotations, but reflected sketches are mirrored in an axis turned a quarter of a sector from the
+     * vertical, which gives a dihedral group whose mirrors fall between those of ROTATION.
+     */
+    OFFSET_MIRROR("Offset Mirror") {
+        @Override
+        List<AffineTransform> build(int numberSectors, boolean reflect) {
+            // Mirrors at multiples of half a sector are already in ROTATION, so the axis is turned a quarter
+            return rotations(numberSectors, reflect ? mirror(Math.PI / (2 * numberSectors)) : null);
+        }
+
+        @Override
+        List<Line2D> buildGuides(int numberSectors) {
+            return sectorLines(numberSectors);
+        }
+    },
+
+    /**
+     * The number of sectors sets how many cells the canvas is split into across, and the sketch is repeated in each
+     * cell along the horizontal. Reflected sketches are also mirrored in the vertical axis of each cell.
+     */
+    FRIEZE("Frieze") {
+        @Override
+        List<AffineTransform> build(int numberSectors, boolean reflect) {
+            return translations(numberSectors, 1, reflect);
+        }
+
+        @Override
+        List<Line2D> buildGuides(int numberSectors) {
+            return gridLines(numberSectors, false);
+        }
+    },
+
+    /**
+     * The canvas is split into a grid of square cells, half the number of sectors across, and the sketch is repeated
+     * in every cell. Reflected sketches are also mirrored in the vertical axis of each cell.
+     */
+    TILING("Tiling") {
+        @Override
+        List<AffineTransform> build(int numberSectors, boolean reflect) {
+            int cells = Math.max(1, numberSectors / 2);
+            return translations(cells, cells, reflect);
+        }
+
+        @Override
+        List<Line2D> buildGuides(int numberSectors) {
+            return gridLines(Math.max(1, numberSectors / 2), true);
+        }
+    };
+
+    // The most sectors the editor offers, only tables up to this many sectors are kept once built
+    static final int MAX_SECTORS = 40;
+
+    // The name shown in the menu
+    private final String label;
+
+    // Tables already built, keyed by the number of sectors and the reflect flag, at most two for each number of sectors
+    private final Map<Integer, List<AffineTransform>> tables = new ConcurrentHashMap<>();
+
+    /**
+     * @param label the name shown in the menu
+     */
+    Symmetry(String label) {
+        this.label = label;
+    }
+
+    /**
+     * @return the name shown in the menu
+     */
+    String getLabel() {
+        return label;
+    }
+
+    /**
+     * Returns the table of transforms for a number of sectors, building it the first time it is needed. Tables for
+     * more sectors than the editor offers, which only come from the command line, are built each time instead of
+     * kept, so callers cannot fill the cache with numbers that are never asked for again.
+     * @param numberSectors the number of sectors
+     * @param reflect whether the mirrored copies are included
+     * @return the transforms in canvas coordinates - the list cannot be changed and the transforms must not be changed
+     */
+    List<AffineTransform> getTransforms(int numberSectors, boolean reflect) {
+        if (numberSectors < 1 || numberSectors > MAX_SECTORS) {
+            return createTable(numberSectors, reflect);
+        }
+        return tables.computeIfAbsent(numberSectors * 2 + (reflect ? 1 : 0),
+                key -> createTable(numberSectors, reflect));
+    }
+
+    /**
+     * @param numberSectors the number of sectors
+     * @param reflect whether the mirrored copies are included
+     * @return a new table of transforms without duplicates, which cannot be changed
+     */
+    private List<AffineTransform> createTable(int numberSectors, boolean reflect) {
+        return Collections.unmodifiableList(removeDuplicates(build(numberSectors, reflect)));
+    }
+
+    /**
+     * @param numberSectors the number of sectors
+     * @return the lines showing the edges of the sectors or cells, in canvas coordinates
+     */
+    List<Line2D> getGuides(int numberSectors) {
+        return buildGuides(numberSectors);
+    }
+
+    /**
+     * @param numberSectors the number of sectors
+     * @param reflect whether to include the mirrored copies
+     * @return every transform of the mode, which may include duplicates
+     */
+    abstract List<AffineTransform> build(int numberSectors, boolean reflect);
+
+    /**
+     * @param numberSectors the number of sectors
+     * @return the lines showing the edges of the sectors or cells
+     */
+    abstract List<Line2D> buildGuides(int numberSectors);
+
+    /**
+     * @param name a mode name such as "rotation" or "offset-mirror"
+     * @return the matching mode
+     */
+    static Symmetry fromName(String name) {
+        return valueOf(name.toUpperCase().replace('-', '_'));
+    }
+
+    /**
+     * @param angle the angle of the mirror axis from the vertical, in radians
+     * @return a transform mirroring canvas coordinates in an axis through the center
+     */
+    private static AffineTransform mirror(double angle) {
+        // Turning an axis by an angle is the same as mirroring in the vertical then rotating by twice the angle
+        AffineTransform mirror = AffineTransform.getRotateInstance(2 * angle, 0.5, 0.5);
+        mirror.translate(1, 0);
+        mirror.scale(-1, 1);
+        return mirror;
+    }
+
+    /**
+     * @param numberSectors the number of rotations
+     * @param mirror the mirror to apply before each rotation, or null for no mirrored copies
+     * @return a rotation about the center for each sector, each followed by its mirrored copy
+     */
+    private static List<AffineTransform> rotations(int numberSectors, AffineTransform mirror) {
+        List<AffineTransform> transforms = new ArrayList<>();
+        for (int i = 0; i < numberSectors; i++) {
+            AffineTransform rotate = AffineTransform.getRotateInstance(2 * Math.PI * i / numberSectors, 0.5, 0.5);
+            transforms.add(rotate);
+
+            if (mirror != null) {
+                AffineTransform reflected = new AffineTransform(rotate);
+                reflected.concatenate(mirror);
+                transforms.add(reflected);
+            }
+        }
+        return transforms;
+    }
+
+    /**
+     * Creates a translation to every cell a copy of the sketch could land in, given the sketch can be anywhere on
+     * the canvas. Copies which end up off the canvas are skipped by the renderer.
+     * @param columns the number of cells across
+     * @param rows the number of cells down
+     * @param reflect whether to include the mirrored copies
+     * @return the translations, each followed by its mirrored copy
+     */
+    private static List<AffineTransform> translations(int columns, int rows, boolean reflect) {
+        List<AffineTransform> transforms = new ArrayList<>();
+        for (int row = 1 - rows; row < rows; row++) {
+            for (int column = 1 - columns; column < columns; column++) {
+                AffineTransform translate =
+                        AffineTransform.getTranslateInstance((double) column / columns, (double) row / rows);
+                transforms.add(translate);
+
+                if (reflect) {
+                    AffineTransform reflected = new AffineTransform(translate);
+                    reflected.concatenate(mirror(0));
+                    transforms.add(reflected);
+                }
+            }
+        }
+        return transforms;
+    }
+
+    /**
+     * @param numberSectors the number of sectors
+     * @return a line from the center to the top of the canvas for each sector
+     */
+    private static List<Line2D> sectorLines(int numberSectors) {
+        List<Line2D> lines = new ArrayList<>();
+        Line2D sectorLine = new Line2D.Double(0.5, 0.5, 0.5, 0);
+        for (AffineTransform rotate : rotations(numberSectors, null)) {
+            lines.add(new Line2D.Double(rotate.transform(sectorLine.getP1(), null),
+                    rotate.transform(sectorLine.getP2(), null)));
+        }
+        return lines;
+    }
+
+    /**
+     * @param cells the number of cells across, and down if the grid has rows
+     * @param rows whether to split the canvas into rows as well as columns
+     * @return the lines between the cells
+     */
+    private static List<Line2D> gridLines(int cells, boolean rows) {
+        List<Line2D> lines = new ArrayList<>();
+        for (int i = 1; i < cells; i++) {
+            double position = (double) i / cells;
+            lines.add(new Line2D.Double(position, 0, position, 1));
+            if (rows) {
+                lines.add(new Line2D.Double(0, position, 1, position));
+            }
+        }
+        return lines;
+    }
+
+    /**
+     * @param transforms the transforms of a mode
+     * @return the transforms in the same order with any that match an earlier one removed
+     */
+    private static List<AffineTransform> removeDuplicates(List<AffineTransform> transforms) {
+        Map<List<Long>, AffineTransform> unique = new LinkedHashMap<>();
+        double[] matrix = new double[6];
+        for (AffineTransform transform : transforms) {
+            // Round away floating point error so transforms that are equal in theory compare equal
+            transform.getMatrix(matrix);
+            List<Long> key = new ArrayList<>(6);
+            for (double value : matrix) {
+                key.add(Math.round(value * 1e9));
+            }
+            unique.putIfAbsent(key, transform);
+        }
+        return new ArrayList<>(unique.values());
+    }
+}